@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * DLB stored as parallel primitive arrays instead of Node objects.
+ *
+ * Node i is val[i], with its child list starting at child[i] and its next
+ * sibling at next[i] (NONE when missing). The arrays grow in chunks, so a
+ * node costs 10 bytes and no object header. Same search/add/delete API as DLB.
+ */
+public class ArrayDLB {
+    public int numOfSuggestions = 5;
+
+    private final char TERMINATOR = '$';
+    private static final int NONE = -1;
+    private static final int CHUNK = 1 << 16;
+
+    private char[] val = new char[CHUNK];
+    private int[] child = new int[CHUNK];
+    private int[] next = new int[CHUNK];
+    private int size = 0;
+
+    private int root = NONE;
+    private int cachedNodeParent = NONE;
+    private int cachedNode = NONE;
+    private boolean searching = false;
+    private StringBuilder prefix;
+
+
+    // SEARCH METHOD
+    public void startNewSearch() {
+        prefix = new StringBuilder();
+        cachedNode = root;
+        searching = true;
+    }
+
+    public ArrayList<String> search(char c, int numOfSuggestions) {
+        this.numOfSuggestions = numOfSuggestions;
+        return search(c);
+    }
+
+    public ArrayList<String> search(char c) {
+        prefix.append(c);
+        int current = cachedNode;
+        while(current != NONE) {
+            if(val[current] == c) break;
+            current = next[current];
+        }
+
+        if(current == NONE) {
+            // Could not find the character in this sub list
+            // Now stop searching this tree on new characters
+            cachedNode = NONE;
+            searching = false;
+            return null;
+        }
+
+        cachedNodeParent = current;
+        cachedNode = child[current];
+
+        if(numOfSuggestions <= 0) return null;
+        StringBuilder str = new StringBuilder(prefix);
+        ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+        getWords(cachedNode, predictions, str);
+        return predictions;
+    }
+
+    private void getWords(int current, ArrayList<String> predictions, StringBuilder str) {
+        if(current == NONE) return;
+        if(predictions.size() >= numOfSuggestions) return;
+        if(val[current] == TERMINATOR) {
+            predictions.add(str.toString());
+        }
+
+        while(current != NONE) {
+            str.append(val[current]);
+            // Add all words underneath as predictions:
+            getWords(child[current], predictions, str);
+            str.deleteCharAt(str.length()-1);
+            current = next[current];
+        }
+    }
+
+    // DELETE
+
+    public void deleteCurrentWordWithSuffix(String suffix) {
+        if(!searching) throw new UnsupportedOperationException("Search not started. Cannot delete");
+
+        int parent = cachedNodeParent;
+        for(char c : suffix.toCharArray()) {
+            int current = child[parent];
+            while(current != NONE && val[current] != c) current = next[current];
+            if(current == NONE) throw new UnsupportedOperationException("Word not in DLB");
+            parent = current;
+        }
+
+        // Unlink the terminator, its slot is not reused
+        int prev = NONE;
+        int current = child[parent];
+        while(current != NONE && val[current] != TERMINATOR) {
+            prev = current;
+            current = next[current];
+        }
+        if(current == NONE) throw new UnsupportedOperationException("Word not in DLB");
+        if(prev == NONE) child[parent] = next[current];
+        else next[prev] = next[current];
+    }
+
+    // ADD METHOD
+
+    public void add(String word) {
+        word = word + TERMINATOR;
+        int parent = NONE;
+        int i = 0;
+
+        // Walk down the existing lists
+        while(i < word.length()) {
+            char c = word.charAt(i);
+            int current = parent == NONE ? root : child[parent];
+            int prev = NONE;
+            while(current != NONE && val[current] != c) {
+                prev = current;
+                current = next[current];
+            }
+            if(current == NONE) {
+                current = newNode(c);
+                if(prev != NONE) next[prev] = current;
+                else if(parent == NONE) root = current;
+                else child[parent] = current;
+            }
+            parent = current;
+            i++;
+            if(child[parent] == NONE) break;
+        }
+
+        // The character has no child list, add the rest of the word as a chain
+        while(i < word.length()) {
+            int current = newNode(word.charAt(i));
+            child[parent] = current;
+            parent = current;
+            i++;
+        }
+    }
+
+    private int newNode(char c) {
+        if(size == val.length) {
+            int capacity = size + CHUNK;
+            val = Arrays.copyOf(val, capacity);
+            child = Arrays.copyOf(child, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+        val[size] = c;
+        child[size] = NONE;
+        next[size] = NONE;
+        return size++;
+    }
+
+    /**
+     * Drops the unused capacity at the end of the arrays,
+     * call once the dictionary is loaded
+     */
+    public void trimToSize() {
+        val = Arrays.copyOf(val, size);
+        child = Arrays.copyOf(child, size);
+        next = Arrays.copyOf(next, size);
+    }
+
+    /**
+     * Number of nodes allocated so far
+     */
+    public int nodeCount() {
+        return size;
+    }
+
+    private void printHelper(StringBuilder str, int current) {
+        str.append('[');
+        int c = current;
+        while(c != NONE) {
+            str.append(val[c] + ",");
+            c = next[c];
+        }
+        str.append("]\n");
+        c = current;
+        while(c != NONE) {
+            str.append(val[c] +":");
+            printHelper(str, child[c]);
+            c = next[c];
+        }
+    }
+
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        printHelper(str, root);
+        return str.toString();
+    }
+}
@@ -0,0 +1,670 @@
+/******************************************************************************
+ *
+ *
+ *
+ *  ArtTrieST, TrieST with adaptive radix tree (ART) nodes
+ *
+ *  Same public API as TrieST, but a node only allocates room for the
+ *  children it actually has. Nodes start out holding up to 4 sorted children
+ *  and grow to 16, then 48 (with a 256 entry byte index), then a full
+ *  256 slot array. Deleting children shrinks them back down.
+ *  Keys are limited to extended ASCII (chars below 256), as in TrieST.
+ *
+ ******************************************************************************/
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+
+
+public class ArtTrieST<Value> {
+    private static final int R = 256;        // extended ASCII
+    private static final int NONE = Integer.MIN_VALUE;  // no value at a node
+
+
+    private Node root;      // root of trie
+    private int n;          // number of keys in trie
+    private int nodes;      // number of nodes in trie
+
+    // Adaptive trie node, the subclasses only differ in how children are stored.
+    // Values are kept as unboxed ints
+    private static abstract class Node {
+        private int val = NONE;
+        private int max = NONE; // highest frequency in the subtrie rooted here
+        protected int count;    // number of children
+
+        // child for c, or null
+        abstract Node child(char c);
+
+        // sets the child for c (non null), returns the node to use in place of this one
+        abstract Node put(char c, Node child);
+
+        // removes the child for c, returns the node to use in place of this one
+        abstract Node remove(char c);
+
+        // smallest child key >= from, or -1 if there is none
+        abstract int nextKey(int from);
+
+        // moves value, max and all children into a node of another type
+        Node copyInto(Node to) {
+            to.val = val;
+            to.max = max;
+            for (int c = nextKey(0); c >= 0; c = nextKey(c + 1))
+                to = to.put((char) c, child((char) c));
+            return to;
+        }
+    }
+
+    // Node4 and Node16: keys kept sorted in a small array, searched directly
+    private static class SortedNode extends Node {
+        private final int capacity;
+        private char[] keys;        // allocated with the first child, leaves stay small
+        private Node[] children;
+
+        SortedNode(int capacity) {
+            this.capacity = capacity;
+        }
+
+        private int find(char c) {
+            int lo = 0, hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < c) lo = mid + 1;
+                else if (keys[mid] > c) hi = mid - 1;
+                else return mid;
+            }
+            return -(lo + 1);
+        }
+
+        Node child(char c) {
+            if (count == 0) return null;
+            int i = find(c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node put(char c, Node child) {
+            if (keys == null) {
+                keys = new char[capacity];
+                children = new Node[capacity];
+            }
+            int i = find(c);
+            if (i >= 0) {
+                children[i] = child;
+                return this;
+            }
+            if (count == capacity) {
+                Node bigger = capacity == 4 ? new SortedNode(16) : new Node48();
+                return copyInto(bigger).put(c, child);
+            }
+            i = -(i + 1);
+            System.arraycopy(keys, i, keys, i + 1, count - i);
+            System.arraycopy(children, i, children, i + 1, count - i);
+            keys[i] = c;
+            children[i] = child;
+            count++;
+            return this;
+        }
+
+        Node remove(char c) {
+            int i = count == 0 ? -1 : find(c);
+            if (i < 0) return this;
+            System.arraycopy(keys, i + 1, keys, i, count - i - 1);
+            System.arraycopy(children, i + 1, children, i, count - i - 1);
+            count--;
+            children[count] = null;
+            if (capacity == 16 && count <= 3) return copyInto(new SortedNode(4));
+            if (count == 0) {
+                keys = null;
+                children = null;
+            }
+            return this;
+        }
+
+        int nextKey(int from) {
+            for (int i = 0; i < count; i++)
+                if (keys[i] >= from) return keys[i];
+            return -1;
+        }
+    }
+
+    // Node48: a byte index per character pointing into 48 child slots
+    private static class Node48 extends Node {
+        private final byte[] index = new byte[R];   // slot + 1, 0 means no child
+        private final Node[] children = new Node[48];
+
+        Node child(char c) {
+            int slot = index[c];
+            return slot == 0 ? null : children[slot - 1];
+        }
+
+        Node put(char c, Node child) {
+            int slot = index[c];
+            if (slot != 0) {
+                children[slot - 1] = child;
+                return this;
+            }
+            if (count == 48) return copyInto(new Node256()).put(c, child);
+            slot = 0;
+            while (children[slot] != null) slot++;
+            children[slot] = child;
+            index[c] = (byte) (slot + 1);
+            count++;
+            return this;
+        }
+
+        Node remove(char c) {
+            int slot = index[c];
+            if (slot == 0) return this;
+            children[slot - 1] = null;
+            index[c] = 0;
+            count--;
+            if (count <= 12) return copyInto(new SortedNode(16));
+            return this;
+        }
+
+        int nextKey(int from) {
+            for (int c = from; c < R; c++)
+                if (index[c] != 0) return c;
+            return -1;
+        }
+    }
+
+    // Node256: a plain R-way node
+    private static class Node256 extends Node {
+        private final Node[] children = new Node[R];
+
+        Node child(char c) {
+            return children[c];
+        }
+
+        Node put(char c, Node child) {
+            if (children[c] == null) count++;
+            children[c] = child;
+            return this;
+        }
+
+        Node remove(char c) {
+            if (children[c] == null) return this;
+            children[c] = null;
+            count--;
+            if (count <= 40) return copyInto(new Node48());
+            return this;
+        }
+
+        int nextKey(int from) {
+            for (int c = from; c < R; c++)
+                if (children[c] != null) return c;
+            return -1;
+        }
+    }
+
+    /**
+     * Initializes an empty string symbol table.
+     */
+    public ArtTrieST() {
+    }
+
+
+    /**
+     * Returns the value associated with the given key.
+     * @param key the key
+     * @return the value associated with the given key if the key is in the symbol table
+     *     and {@code null} if the key is not in the symbol table
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     *     or has a character outside extended ASCII
+     */
+    public Integer get(String key) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        checkChars(key);
+        Node x = get(root, key, 0);
+        if (x == null || x.val == NONE) return null;
+        return x.val;
+    }
+
+    /**
+     * Returns the value associated with the given key without boxing it.
+     * @param key the key
+     * @param defaultValue what to return if the key is not in the symbol table
+     * @return the value associated with the given key, or {@code defaultValue}
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     *     or has a character outside extended ASCII
+     */
+    public int get(String key, int defaultValue) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        checkChars(key);
+        Node x = get(root, key, 0);
+        if (x == null || x.val == NONE) return defaultValue;
+        return x.val;
+    }
+
+    /**
+     * Does this symbol table contain the given key?
+     * @param key the key
+     * @return {@code true} if this symbol table contains {@code key} and
+     *     {@code false} otherwise
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     *     or has a character outside extended ASCII
+     */
+    public boolean contains(String key) {
+        if (key == null) throw new IllegalArgumentException("argument to contains() is null");
+        return get(key) != null;
+    }
+
+    private Node get(Node x, String key, int d) {
+        if (x == null) return null;
+        if (d == key.length()) return x;
+        char c = key.charAt(d);
+        return get(x.child(c), key, d+1);
+    }
+
+    // Node48 and Node256 index children by the char itself, so a key with a
+    // char past R is turned away before it reaches them
+    private static void checkChars(String key) {
+        for (int i = 0; i < key.length(); i++)
+            if (key.charAt(i) >= R)
+                throw new IllegalArgumentException("character outside extended ASCII in " + key);
+    }
+
+    /**
+     * Inserts the key-value pair into the symbol table, overwriting the old value
+     * with the new value if the key is already in the symbol table.
+     * If the value is {@code null}, this effectively deletes the key from the symbol table.
+     * Values are frequencies, kept unboxed, so only {@code Integer} values are accepted.
+     * @param key the key
+     * @param val the value
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     *     or has a character outside extended ASCII,
+     *     or if {@code val} is not an {@code Integer} or is {@code Integer.MIN_VALUE}
+     */
+    public void put(String key, Value val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        if (val == null) delete(key);
+        else if (!(val instanceof Integer)) throw new IllegalArgumentException("value is not an Integer: " + val.getClass().getName());
+        else put(key, ((Integer) val).intValue());
+    }
+
+    /**
+     * Inserts the key-value pair into the symbol table without boxing the value.
+     * @param key the key
+     * @param val the value, anything but {@code Integer.MIN_VALUE}
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     *     or has a character outside extended ASCII,
+     *     or if {@code val} is {@code Integer.MIN_VALUE}, which marks a node without a value
+     */
+    public void put(String key, int val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        if (val == NONE) throw new IllegalArgumentException("Integer.MIN_VALUE cannot be stored, use delete()");
+        checkChars(key);
+        root = put(root, key, val, 0);
+    }
+
+    private Node put(Node x, String key, int val, int d) {
+        if (x == null) {
+            x = new SortedNode(4);
+            nodes++;
+        }
+        int old;    // the value or child maximum this put replaces
+        if (d == key.length()) {
+            if (x.val == NONE) n++;
+            old = x.val;
+            x.val = val;
+        }
+        else {
+            char c = key.charAt(d);
+            Node child = x.child(c);
+            old = child == null ? NONE : child.max;
+            x = x.put(c, put(child, key, val, d+1));
+        }
+
+        // Only a lowered value that was the maximum needs a rescan of the children
+        if (val >= x.max) x.max = val;
+        else if (old == x.max) updateMax(x);
+        return x;
+    }
+
+    // recomputes the subtrie maximum of x from its own value and its children
+    private void updateMax(Node x) {
+        int max = x.val;        // NONE if neither x nor its children have a value
+        for (int c = x.nextKey(0); c >= 0; c = x.nextKey(c + 1))
+            if (x.child((char) c).max > max)
+                max = x.child((char) c).max;
+        x.max = max;
+    }
+
+    /**
+     * Returns the number of key-value pairs in this symbol table.
+     * @return the number of key-value pairs in this symbol table
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * Returns the number of nodes in the trie, whatever their size.
+     * @return the number of nodes in the trie
+     */
+    public int nodeCount() {
+        return nodes;
+    }
+
+    /**
+     * Is this symbol table empty?
+     * @return {@code true} if this symbol table is empty and {@code false} otherwise
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns all keys in the symbol table as an {@code Iterable}.
+     * @return all keys in the symbol table as an {@code Iterable}
+     */
+    public Iterable<String> keys() {
+        return keysWithPrefix("");
+    }
+
+    /**
+     * Converts Trie into HashMap
+     */
+    public Map<String, Integer> toHashMap() {
+        return keyMapWithPrefix("");
+    }
+
+    /**
+     * Generates a hashmap given a prefix
+     * Keys are strings and values are word frequency
+     */
+    public Map<String, Integer> keyMapWithPrefix(String prefix) {
+        checkChars(prefix);
+        Map<String, Integer> map = new HashMap<>();
+        Node x = get(root, prefix, 0);
+        collect(x, new StringBuilder(prefix), map);
+        return map;
+    }
+
+    private void collect(Node x, StringBuilder prefix, Map<String, Integer> map) {
+        if (x == null) return;
+        if (x.val != NONE) map.put(prefix.toString(), x.val);
+        for (int c = x.nextKey(0); c >= 0; c = x.nextKey(c + 1)) {
+            prefix.append((char) c);
+            collect(x.child((char) c), prefix, map);
+            prefix.deleteCharAt(prefix.length() - 1);
+        }
+    }
+
+    /**
+     * Returns all of the keys in the set that start with {@code prefix}.
+     * @param prefix the prefix
+     * @return all of the keys in the set that start with {@code prefix},
+     *     most frequent first
+     */
+    public List<String> keysWithPrefix(String prefix) {
+        return keysWithPrefix(prefix, n);
+    }
+
+    /**
+     * Returns the {@code k} most frequent keys that start with {@code prefix}.
+     * Works the same way as {@link TrieST#keysWithPrefix(String, int)}.
+     * @param prefix the prefix
+     * @param k the maximum number of keys to return
+     * @return up to {@code k} keys that start with {@code prefix},
+     *     most frequent first
+     */
+    public List<String> keysWithPrefix(String prefix, int k) {
+        if (prefix == null) throw new IllegalArgumentException("argument to keysWithPrefix() is null");
+        checkChars(prefix);
+        if (k <= 0) return new ArrayList<String>(0);
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(k, 16));
+        Node x = get(root, prefix, 0);
+        collect(x, new StringBuilder(prefix), k, heap);
+
+        String[] keys = new String[heap.size()];
+        for (int i = keys.length - 1; i >= 0; i--)
+            keys[i] = heap.poll().key;
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * Returns the keys that start with {@code prefix}, most frequent first
+     * (ties in character order), finding them only as they are asked for.
+     * Works the same way as {@link TrieST#completions(String)}.
+     * @param prefix the prefix
+     * @return the keys that start with {@code prefix}, lazily
+     * @throws IllegalArgumentException if {@code prefix} is {@code null}
+     *     or has a character outside extended ASCII
+     */
+    public Completions completions(String prefix) {
+        if (prefix == null) throw new IllegalArgumentException("argument to completions() is null");
+        checkChars(prefix);
+        return new TrieCompletions(get(root, prefix, 0), prefix);
+    }
+
+    private class TrieCompletions extends Completions {
+        private final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        private String next;
+
+        private TrieCompletions(Node x, String prefix) {
+            if (x != null) queue.add(new Candidate(x, prefix, x.max));
+        }
+
+        public boolean hasNext() {
+            if (next == null) next = advance();
+            return next != null;
+        }
+
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            String key = next;
+            next = null;
+            return key;
+        }
+
+        private String advance() {
+            while (!queue.isEmpty()) {
+                Candidate candidate = queue.poll();
+                Node x = candidate.x;
+                if (x == null) return candidate.key;
+                if (x.val != NONE) queue.add(new Candidate(null, candidate.key, x.val));
+                for (int c = x.nextKey(0); c >= 0; c = x.nextKey(c + 1)) {
+                    Node child = x.child((char) c);
+                    queue.add(new Candidate(child, candidate.key + (char) c, child.max));
+                }
+            }
+            return null;
+        }
+    }
+
+    // a key (x is null) or a subtrie to search (freq is its max), the most
+    // frequent comes out first and ties in key order
+    private static class Candidate implements Comparable<Candidate> {
+        private final Node x;
+        private final String key;
+        private final int freq;
+
+        private Candidate(Node x, String key, int freq) {
+            this.x = x;
+            this.key = key;
+            this.freq = freq;
+        }
+
+        public int compareTo(Candidate that) {
+            if (this.freq != that.freq) return Integer.compare(that.freq, this.freq);
+            return this.key.compareTo(that.key);
+        }
+    }
+
+    // heap entry for keysWithPrefix, the least frequent key is on top
+    private static class Entry implements Comparable<Entry> {
+        private final String key;
+        private final int freq;
+
+        private Entry(String key, int freq) {
+            this.key = key;
+            this.freq = freq;
+        }
+
+        // on equal frequency the key that sorts later is dropped first
+        public int compareTo(Entry that) {
+            if (this.freq != that.freq) return Integer.compare(this.freq, that.freq);
+            return that.key.compareTo(this.key);
+        }
+    }
+
+    private void collect(Node x, StringBuilder prefix, int k, PriorityQueue<Entry> heap) {
+        if (x == null) return;
+        if (heap.size() >= k && x.max <= heap.peek().freq) return;
+        if (x.val != NONE) {
+            int freq = x.val;
+            if (heap.size() < k) heap.add(new Entry(prefix.toString(), freq));
+            else if (freq > heap.peek().freq) {
+                heap.poll();
+                heap.add(new Entry(prefix.toString(), freq));
+            }
+        }
+        for (int c = x.nextKey(0); c >= 0; c = x.nextKey(c + 1)) {
+            prefix.append((char) c);
+            collect(x.child((char) c), prefix, k, heap);
+            prefix.deleteCharAt(prefix.length() - 1);
+        }
+    }
+
+    /**
+     * Returns all of the keys in the symbol table that match {@code pattern},
+     * where . symbol is treated as a wildcard character.
+     * Only existing children are followed at a wildcard.
+     * A pattern character outside extended ASCII matches nothing.
+     * @param pattern the pattern
+     * @return all of the keys in the symbol table that match {@code pattern},
+     *     as an iterable, where . is treated as a wildcard character.
+     */
+    public Iterable<String> keysThatMatch(String pattern) {
+        Queue<String> results = new LinkedList<>();
+        collect(root, new StringBuilder(), pattern, results);
+        return results;
+    }
+
+    private void collect(Node x, StringBuilder prefix, String pattern, Queue<String> results) {
+        if (x == null) return;
+        int d = prefix.length();
+        if (d == pattern.length() && x.val != NONE)
+            results.add(prefix.toString());
+        if (d == pattern.length())
+            return;
+        char c = pattern.charAt(d);
+        if (c == '.') {
+            for (int ch = x.nextKey(0); ch >= 0; ch = x.nextKey(ch + 1)) {
+                prefix.append((char) ch);
+                collect(x.child((char) ch), prefix, pattern, results);
+                prefix.deleteCharAt(prefix.length() - 1);
+            }
+        }
+        else if (c < R) {
+            prefix.append(c);
+            collect(x.child(c), prefix, pattern, results);
+            prefix.deleteCharAt(prefix.length() - 1);
+        }
+    }
+
+    /**
+     * Returns the string in the symbol table that is the longest prefix of {@code query},
+     * or {@code null}, if no such string.
+     * @param query the query string
+     * @return the string in the symbol table that is the longest prefix of {@code query},
+     *     or {@code null} if no such string
+     * @throws IllegalArgumentException if {@code query} is {@code null}
+     *     or has a character outside extended ASCII
+     */
+    public String longestPrefixOf(String query) {
+        if (query == null) throw new IllegalArgumentException("argument to longestPrefixOf() is null");
+        checkChars(query);
+        int length = longestPrefixOf(root, query, 0, -1);
+        if (length == -1) return null;
+        else return query.substring(0, length);
+    }
+
+    private int longestPrefixOf(Node x, String query, int d, int length) {
+        if (x == null) return length;
+        if (x.val != NONE) length = d;
+        if (d == query.length()) return length;
+        char c = query.charAt(d);
+        return longestPrefixOf(x.child(c), query, d+1, length);
+    }
+
+    /**
+     * Removes the key from the set if the key is present.
+     * @param key the key
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     *     or has a character outside extended ASCII
+     */
+    public void delete(String key) {
+        if (key == null) throw new IllegalArgumentException("argument to delete() is null");
+        checkChars(key);
+        root = delete(root, key, 0);
+    }
+
+    private Node delete(Node x, String key, int d) {
+        if (x == null) return null;
+        if (d == key.length()) {
+            if (x.val != NONE) n--;
+            x.val = NONE;
+        }
+        else {
+            char c = key.charAt(d);
+            Node child = delete(x.child(c), key, d+1);
+            if (child == null) x = x.remove(c);
+            else x = x.put(c, child);
+        }
+
+        updateMax(x);
+
+        // remove subtrie rooted at x if it is completely empty
+        if (x.val != NONE || x.count > 0) return x;
+        nodes--;
+        return null;
+    }
+
+    /**
+     * Number of nodes of each type, as {4, 16, 48, 256} children.
+     * Used by TrieMemoryReport.
+     */
+    int[] nodeCounts() {
+        int[] counts = new int[4];
+        nodeCounts(root, counts);
+        return counts;
+    }
+
+    private void nodeCounts(Node x, int[] counts) {
+        if (x == null) return;
+        if (x instanceof SortedNode) counts[((SortedNode) x).capacity == 4 ? 0 : 1]++;
+        else if (x instanceof Node48) counts[2]++;
+        else counts[3]++;
+        for (int c = x.nextKey(0); c >= 0; c = x.nextKey(c + 1))
+            nodeCounts(x.child((char) c), counts);
+    }
+
+    /**
+     * Writes every key as a "key,value" line, straight from the trie
+     */
+    public void write(PrintWriter out) {
+        write(root, new StringBuilder(), out);
+    }
+
+    private void write(Node x, StringBuilder prefix, PrintWriter out) {
+        if (x == null) return;
+        if (x.val != NONE) {
+            out.append(prefix).append(',').print(x.val);
+            out.print('\n');
+        }
+        for (int c = x.nextKey(0); c >= 0; c = x.nextKey(c + 1)) {
+            prefix.append((char) c);
+            write(x.child((char) c), prefix, out);
+            prefix.deleteCharAt(prefix.length() - 1);
+        }
+    }
+
+    public String toString() {
+        StringWriter words = new StringWriter();
+        write(new PrintWriter(words));
+        return words.toString();
+    }
+}
@@ -0,0 +1,24 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Completions of a prefix, best first, worked out only as far as they are
+ * asked for. Keep the iterator to show more: the next page carries on from
+ * where the last one stopped instead of searching from the prefix again.
+ */
+public abstract class Completions implements Iterator<String> {
+
+    /**
+     * @return up to pageSize more completions, none when all were returned
+     */
+    public ArrayList<String> nextPage(int pageSize) {
+        ArrayList<String> page = new ArrayList<>(pageSize);
+        while(page.size() < pageSize && hasNext()) page.add(next());
+        return page;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Completions are read only");
+    }
+}
@@ -0,0 +1,258 @@
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Word history that many threads can update and search at the same time.
+ *
+ * Like TrieST it maps words to scores, longs (see DecayedFrequency), and every
+ * node keeps the highest score underneath it, so keysWithPrefix(prefix, k)
+ * skips subtries that cannot make the top k. Nothing here locks:
+ *
+ * Children are a sibling list, as in the DLB. A new node is put in front of
+ * its list with a compare-and-set of the parent's child link; a thread that
+ * loses the race looks through the list again, so a character is never added
+ * twice and a node's next link never changes.
+ *
+ * A score changes with a compare-and-set loop on the word's own node, so two
+ * increments of the same word at once both count. The subtrie maximums on the
+ * way down are raised before the new score is written, so a search never skips
+ * a score it could have seen. Maximums are only ever raised: decayed scores
+ * never go down, and a maximum that is too high only costs some pruning.
+ *
+ * Searches only read volatile fields and never wait for a writer. A search
+ * running during an update sees each word with its score from before or after.
+ */
+public class ConcurrentHistoryTrie {
+    private static final long NONE = DecayedFrequency.NEVER;    // no score at a node
+    // Heap of a node, an estimate: object header, val, next and child links, score and max
+    public static final long NODE_BYTES = 16 + 2 + 4 + 4 + 8 + 8;
+
+    private final Node root = new Node('\0', null);
+    private final LongAdder size = new LongAdder();
+    private final LongAdder nodes = new LongAdder();
+
+    private static final class Node {
+        private static final AtomicReferenceFieldUpdater<Node, Node> CHILD =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "child");
+        private static final AtomicLongFieldUpdater<Node> SCORE = AtomicLongFieldUpdater.newUpdater(Node.class, "score");
+        private static final AtomicLongFieldUpdater<Node> MAX = AtomicLongFieldUpdater.newUpdater(Node.class, "max");
+
+        private final char val;
+        private final Node next;
+        private volatile Node child = null;
+        private volatile long score = NONE;
+        private volatile long max = NONE;       // highest score in the subtrie rooted here
+
+        private Node(char val, Node next) {
+            this.val = val;
+            this.next = next;
+        }
+    }
+
+    // SCORES
+
+    /**
+     * @return the word's score, or defaultValue if it has none
+     */
+    public long get(String word, long defaultValue) {
+        Node x = find(word);
+        if(x == null) return defaultValue;
+        long score = x.score;
+        return score == NONE ? defaultValue : score;
+    }
+
+    public boolean contains(String word) {
+        return get(word, NONE) != NONE;
+    }
+
+    /**
+     * Counts one use of word now, atomically
+     * @return the word's new score
+     */
+    public long increment(String word, DecayedFrequency decay, long now) {
+        Node[] path = path(word);
+        Node x = path[word.length()];
+        while(true) {
+            long old = x.score;
+            long score = decay.increment(old, now);
+            raiseMax(path, score);
+            if(Node.SCORE.compareAndSet(x, old, score)) {
+                if(old == NONE) size.increment();
+                return score;
+            }
+        }
+    }
+
+    /**
+     * Sets the word's score to score if that is higher, atomically. Scores of
+     * one word never go down, so replaying scores in any order gives the newest
+     * @return the word's score afterwards
+     */
+    public long raise(String word, long score) {
+        if(score == NONE) throw new IllegalArgumentException("No score for " + word);
+        Node[] path = path(word);
+        Node x = path[word.length()];
+        while(true) {
+            long old = x.score;
+            if(old != NONE && old >= score) return old;
+            raiseMax(path, score);
+            if(Node.SCORE.compareAndSet(x, old, score)) {
+                if(old == NONE) size.increment();
+                return score;
+            }
+        }
+    }
+
+    // Raises the subtrie maximum of every node on the path to at least score
+    private static void raiseMax(Node[] path, long score) {
+        for(Node x : path) {
+            long max = x.max;
+            while(max < score && !Node.MAX.compareAndSet(x, max, score)) max = x.max;
+        }
+    }
+
+    // TRIE
+
+    private Node find(String word) {
+        Node x = root;
+        for(int i=0; i<word.length() && x != null; i++) x = find(x.child, word.charAt(i));
+        return x;
+    }
+
+    private static Node find(Node list, char c) {
+        while(list != null && list.val != c) list = list.next;
+        return list;
+    }
+
+    // The nodes from the root down to word's node, adding the ones missing
+    private Node[] path(String word) {
+        Node[] path = new Node[word.length()+1];
+        path[0] = root;
+        for(int i=0; i<word.length(); i++) path[i+1] = child(path[i], word.charAt(i));
+        return path;
+    }
+
+    private Node child(Node parent, char c) {
+        while(true) {
+            Node head = parent.child;
+            Node found = find(head, c);
+            if(found != null) return found;
+            Node node = new Node(c, head);
+            if(Node.CHILD.compareAndSet(parent, head, node)) {
+                nodes.increment();
+                return node;
+            }
+            // Another thread added a child first, maybe this same character
+        }
+    }
+
+    public int size() {
+        return size.intValue();
+    }
+
+    /**
+     * Number of nodes in the trie, not counting the root
+     */
+    public int nodeCount() {
+        return nodes.intValue();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // KEYS
+
+    /**
+     * @return every word, highest score first
+     */
+    public List<String> keys() {
+        return keysWithPrefix("", Integer.MAX_VALUE);
+    }
+
+    /**
+     * The k words starting with prefix with the highest scores, highest first,
+     * ties in character order. Keeps a min-heap of k words and skips any
+     * subtrie whose maximum cannot beat the lowest of them.
+     */
+    public List<String> keysWithPrefix(String prefix, int k) {
+        if(k <= 0) return new ArrayList<String>(0);
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(k, 16));
+        Node x = find(prefix);
+        if(x != null) collect(x, new StringBuilder(prefix), k, heap);
+
+        String[] keys = new String[heap.size()];
+        for(int i=keys.length-1; i>=0; i--) keys[i] = heap.poll().key;
+        return Arrays.asList(keys);
+    }
+
+    private void collect(Node x, StringBuilder prefix, int k, PriorityQueue<Entry> heap) {
+        if(heap.size() >= k && x.max <= heap.peek().score) return;
+        long score = x.score;
+        if(score != NONE) {
+            if(heap.size() < k) {
+                heap.add(new Entry(prefix.toString(), score));
+            } else if(score > heap.peek().score) {
+                heap.poll();
+                heap.add(new Entry(prefix.toString(), score));
+            }
+        }
+        int length = prefix.length();
+        for(Node child = x.child; child != null; child = child.next) {
+            prefix.append(child.val);
+            collect(child, prefix, k, heap);
+            prefix.setLength(length);
+        }
+    }
+
+    // Heap entry for keysWithPrefix, the lowest score is on top
+    private static class Entry implements Comparable<Entry> {
+        private final String key;
+        private final long score;
+
+        private Entry(String key, long score) {
+            this.key = key;
+            this.score = score;
+        }
+
+        // On equal scores the key that sorts later is dropped first
+        public int compareTo(Entry that) {
+            if(this.score != that.score) return Long.compare(this.score, that.score);
+            return that.key.compareTo(this.key);
+        }
+    }
+
+    /**
+     * Writes a "word,score" line for every word, in no particular order
+     */
+    public void write(PrintWriter out) {
+        write(root, new StringBuilder(), out);
+    }
+
+    private void write(Node x, StringBuilder prefix, PrintWriter out) {
+        long score = x.score;
+        if(score != NONE) {
+            out.append(prefix).append(',').print(score);
+            out.print('\n');
+        }
+        int length = prefix.length();
+        for(Node child = x.child; child != null; child = child.next) {
+            prefix.append(child.val);
+            write(child, prefix, out);
+            prefix.setLength(length);
+        }
+    }
+
+    public String toString() {
+        StringWriter words = new StringWriter();
+        write(new PrintWriter(words));
+        return words.toString();
+    }
+}
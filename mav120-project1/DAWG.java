@@ -0,0 +1,232 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Minimized directed acyclic word graph for the dictionary.
+ *
+ * Built from words in sorted order (Daciuk et al. incremental construction):
+ * once a word is added, the part of the previous word's path that can no longer
+ * change is merged with an equivalent state if one already exists. Words then
+ * share suffixes as well as prefixes ("-ing", "-'s", "-ness" ...).
+ *
+ * Searching works like DLB: startNewSearch() and then search(char) per keystroke.
+ * The graph is read-only once finish() has been called.
+ */
+public class DAWG {
+    public int numOfSuggestions = 5;
+
+    private final State root = new State();
+    private final HashMap<State, State> register = new HashMap<>();
+    private final ArrayList<State> uncheckedParents = new ArrayList<>();
+    private final ArrayList<State> uncheckedChildren = new ArrayList<>();
+    private String previousWord = "";
+    private boolean finished = false;
+    private int wordCount = 0;
+
+    private State cachedState = null;
+    private StringBuilder prefix;
+
+    /**
+     * Builds a DAWG from a word list, one word per line.
+     * The file does not have to be sorted, it is sorted first if it isn't.
+     */
+    public static DAWG fromFile(File file) throws FileNotFoundException {
+        ArrayList<String> words = new ArrayList<>();
+        Scanner scanner = new Scanner(file);
+        boolean sorted = true;
+        while(scanner.hasNextLine()) {
+            String line = scanner.nextLine();
+            if(!words.isEmpty() && line.compareTo(words.get(words.size()-1)) < 0) sorted = false;
+            words.add(line);
+        }
+        scanner.close();
+
+        if(!sorted) Collections.sort(words);
+        DAWG dawg = new DAWG();
+        for(String word : words) dawg.add(word);
+        dawg.finish();
+        return dawg;
+    }
+
+    // BUILDING
+
+    /**
+     * Adds a word. Words must be added in String.compareTo order,
+     * adding the same word twice in a row is ignored.
+     */
+    public void add(String word) {
+        if(finished) throw new UnsupportedOperationException("DAWG is finished. Cannot add");
+        int cmp = word.compareTo(previousWord);
+        if(cmp < 0) throw new IllegalArgumentException("Words must be added in sorted order: \"" + word + "\" after \"" + previousWord + "\"");
+        if(cmp == 0 && wordCount > 0) return;
+
+        int common = 0;
+        int max = Math.min(word.length(), previousWord.length());
+        while(common < max && word.charAt(common) == previousWord.charAt(common)) common++;
+
+        minimize(common);
+
+        State state = uncheckedChildren.isEmpty() ? root : uncheckedChildren.get(uncheckedChildren.size()-1);
+        for(int i=common; i<word.length(); i++) {
+            State next = new State();
+            state.addEdge(word.charAt(i), next);
+            uncheckedParents.add(state);
+            uncheckedChildren.add(next);
+            state = next;
+        }
+        state.isFinal = true;
+        previousWord = word;
+        wordCount++;
+    }
+
+    /**
+     * Minimizes what is left of the last word. Call once all words are added.
+     */
+    public void finish() {
+        if(finished) return;
+        minimize(0);
+        register.clear();
+        finished = true;
+    }
+
+    // Merges the states below depth downTo with equivalent registered states
+    private void minimize(int downTo) {
+        for(int i=uncheckedChildren.size()-1; i>=downTo; i--) {
+            State parent = uncheckedParents.remove(i);
+            State child = uncheckedChildren.remove(i);
+            State existing = register.get(child);
+            if(existing != null) {
+                // The child is always its parent's last edge since words come sorted
+                parent.targets[parent.edgeCount-1] = existing;
+            } else {
+                child.trim();
+                register.put(child, child);
+            }
+        }
+    }
+
+    // SEARCH METHOD
+
+    public void startNewSearch() {
+        if(!finished) throw new UnsupportedOperationException("DAWG is not finished. Cannot search");
+        prefix = new StringBuilder();
+        cachedState = root;
+    }
+
+    public ArrayList<String> search(char c, int numOfSuggestions) {
+        this.numOfSuggestions = numOfSuggestions;
+        return search(c);
+    }
+
+    public ArrayList<String> search(char c) {
+        prefix.append(c);
+        if(cachedState == null) return null;
+
+        cachedState = cachedState.next(c);
+        if(cachedState == null) return null;
+
+        if(numOfSuggestions <= 0) return null;
+        ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+        getWords(cachedState, predictions, new StringBuilder(prefix));
+        return predictions;
+    }
+
+    private void getWords(State state, ArrayList<String> predictions, StringBuilder str) {
+        if(predictions.size() >= numOfSuggestions) return;
+        if(state.isFinal) predictions.add(str.toString());
+
+        for(int i=0; i<state.edgeCount; i++) {
+            if(predictions.size() >= numOfSuggestions) return;
+            str.append(state.labels[i]);
+            getWords(state.targets[i], predictions, str);
+            str.deleteCharAt(str.length()-1);
+        }
+    }
+
+    public boolean contains(String word) {
+        State state = root;
+        for(int i=0; i<word.length() && state != null; i++) state = state.next(word.charAt(i));
+        return state != null && state.isFinal;
+    }
+
+    public int size() {
+        return wordCount;
+    }
+
+    /**
+     * Number of distinct states after minimization
+     */
+    public int stateCount() {
+        IdentityHashMap<State, Boolean> seen = new IdentityHashMap<>();
+        ArrayDeque<State> stack = new ArrayDeque<>();
+        stack.push(root);
+        seen.put(root, true);
+        while(!stack.isEmpty()) {
+            State state = stack.pop();
+            for(int i=0; i<state.edgeCount; i++) {
+                if(seen.put(state.targets[i], true) == null) stack.push(state.targets[i]);
+            }
+        }
+        return seen.size();
+    }
+
+    ////// STATE CLASS
+
+    // Equality is on the final flag and the outgoing edges, targets compared by identity.
+    // Only used while a state is registered, and registered states never change.
+    private static class State {
+        private boolean isFinal = false;
+        private char[] labels = new char[2];
+        private State[] targets = new State[2];
+        private int edgeCount = 0;
+
+        private void addEdge(char c, State target) {
+            if(edgeCount == labels.length) {
+                labels = Arrays.copyOf(labels, edgeCount*2);
+                targets = Arrays.copyOf(targets, edgeCount*2);
+            }
+            labels[edgeCount] = c;
+            targets[edgeCount] = target;
+            edgeCount++;
+        }
+
+        private void trim() {
+            if(labels.length == edgeCount) return;
+            labels = Arrays.copyOf(labels, edgeCount);
+            targets = Arrays.copyOf(targets, edgeCount);
+        }
+
+        // Labels are sorted since words are added in order
+        private State next(char c) {
+            int lo = 0, hi = edgeCount-1;
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if(labels[mid] < c) lo = mid+1;
+                else if(labels[mid] > c) hi = mid-1;
+                else return targets[mid];
+            }
+            return null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof State)) return false;
+            State that = (State) o;
+            if(isFinal != that.isFinal || edgeCount != that.edgeCount) return false;
+            for(int i=0; i<edgeCount; i++) {
+                if(labels[i] != that.labels[i] || targets[i] != that.targets[i]) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = isFinal ? 1 : 0;
+            for(int i=0; i<edgeCount; i++) {
+                hash = 31*hash + labels[i];
+                hash = 31*hash + System.identityHashCode(targets[i]);
+            }
+            return hash;
+        }
+    }
+}
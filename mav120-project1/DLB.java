@@ -1,20 +1,90 @@
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * De La Briandais trie used as the dictionary.
+ *
+ * One DLB can be shared by many typists: each one searches through its own
+ * SearchCursor (from newCursor()) and the DLB itself only holds the words.
+ * Searches never lock. add and delete lock the DLB against each other and
+ * only link or unlink fully built nodes with a single write, so a search
+ * running at the same time sees the word either completely or not at all.
+ *
+ * startNewSearch()/search()/deleteCurrentWordWithSuffix() on the DLB itself
+ * use one default cursor, for a single typist.
+ */
 public class DLB {
     public int numOfSuggestions = 5;
 
     private final char TERMINATOR = '$';
 
-    private Node root = null;
-    private Node cachedNodeParent = null;
-    private Node cachedNode = null;
-    private StringBuilder prefix;
+    // In ranked mode (rankedSize > 0) every node keeps the rankedSize heaviest
+    // words underneath it, so a search only reads the matched node's list
+    // instead of walking its whole subtree.
+    private final int rankedSize;
+
+    // Sibling lists longer than this also get a sorted index, so finding a
+    // character in them is a binary search instead of a walk down the list.
+    // The few long lists keep their index in a table by parent rather than
+    // every node having a field for it
+    private static final int INDEX_THRESHOLD = 8;
+
+    private volatile Node root = null;
+    private volatile ListIndex rootIndex = null;
+    private final ConcurrentHashMap<Node, ListIndex> childIndexes = new ConcurrentHashMap<>();
+    private final Object writeLock = new Object();
+    private final ArrayList<Terminator> wordsById = new ArrayList<>();  // by word id, guarded by writeLock
+    private SearchCursor defaultCursor;
+
+    /**
+     * Unranked DLB, suggestions come back in sibling list order
+     */
+    public DLB() {
+        this(0);
+    }
+
+    /**
+     * Ranked DLB, suggestions come back heaviest first.
+     * At most rankedSize suggestions are kept per node.
+     */
+    public DLB(int rankedSize) {
+        this.rankedSize = rankedSize;
+    }
+
+    /**
+     * @return how many suggestions each node keeps, 0 for an unranked DLB
+     */
+    public int getRankedSize() {
+        return rankedSize;
+    }
 
 
     // SEARCH METHOD
+
+    /**
+     * Starts a new search for one typist. Cursors are cheap, use a new one per word.
+     */
+    public SearchCursor newCursor() {
+        return new SearchCursor();
+    }
+
     public void startNewSearch() {
-        prefix = new StringBuilder();
-        cachedNode = root;
+        defaultCursor = newCursor();
     }
 
     public ArrayList<String> search(char c, int numOfSuggestions) {
@@ -23,31 +93,148 @@ public class DLB {
     }
 
     public ArrayList<String> search(char c) {
-        prefix.append(c);
-        Node current = cachedNode;
-        while(current != null) {
-            if(current.val == c) break;
-            current = current.next;
+        return defaultCursor.search(c, numOfSuggestions);
+    }
+
+    /**
+     * Erases the last character of the default search, see SearchCursor.backspace
+     */
+    public ArrayList<String> backspace() {
+        return defaultCursor.backspace(numOfSuggestions);
+    }
+
+    /**
+     * Per-typist search state: the prefix typed so far and where it ended in the DLB.
+     * A cursor is not thread-safe itself, but any number of cursors can search one DLB.
+     *
+     * The cursor keeps one step per character typed, with the node it matched and
+     * the suggestions returned for it. Backspace pops a step and hands back the
+     * suggestions of the one below without searching again.
+     */
+    public class SearchCursor {
+        private final StringBuilder prefix = new StringBuilder();
+        private final ArrayList<Step> steps = new ArrayList<>();
+
+        private SearchCursor() {
         }
 
-        if(current == null) {
-            // Could not find the character in this sub list
-            // Now set cachedNode to null to stop searching this tree on new characters
-            cachedNode = null;
-            return null;
+        public ArrayList<String> search(char c, int numOfSuggestions) {
+            prefix.append(c);
+
+            // Once a character is not found, stop searching this tree on new characters
+            Node current = null;
+            if(steps.isEmpty()) current = findChild(null, c);
+            else if(top().node != null) current = findChild(top().node, c);
+
+            Step step = new Step(current);
+            steps.add(step);
+            if(current == null) return null;
+
+            if(numOfSuggestions <= 0) return null;
+            step.suggestions = suggestions(current, numOfSuggestions);
+            step.limit = numOfSuggestions;
+            return new ArrayList<>(step.suggestions);
         }
 
-        cachedNodeParent = current;
-        cachedNode = current.child;
+        /**
+         * Erases the last character typed. O(1) apart from copying the suggestions,
+         * which are the ones cached when that prefix was typed. They are only
+         * searched again if more are wanted than were found back then.
+         * @return suggestions for the shorter prefix, null if it is empty or not in the DLB
+         */
+        public ArrayList<String> backspace(int numOfSuggestions) {
+            if(steps.isEmpty()) return null;
+            steps.remove(steps.size()-1);
+            prefix.deleteCharAt(prefix.length()-1);
+            if(steps.isEmpty()) return null;
 
-        if(numOfSuggestions <= 0) return null;
-        StringBuilder str = new StringBuilder(prefix);
-        ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
-        getWords(cachedNode, predictions, str);
-        return predictions;
+            Step step = top();
+            if(step.node == null || numOfSuggestions <= 0) return null;
+            if(step.suggestions == null || step.limit < numOfSuggestions) {
+                step.suggestions = suggestions(step.node, numOfSuggestions);
+                step.limit = numOfSuggestions;
+            }
+            int size = Math.min(numOfSuggestions, step.suggestions.size());
+            return new ArrayList<>(step.suggestions.subList(0, size));
+        }
+
+        public void deleteCurrentWordWithSuffix(String suffix) {
+            if(steps.isEmpty() || top().node == null) throw new UnsupportedOperationException("Search not started. Cannot delete");
+            delete(top().node, suffix, prefix + suffix);
+            // The word may be in any of the cached lists
+            for(Step step : steps) step.suggestions = null;
+        }
+
+        /**
+         * Every completion of the prefix typed so far, lazily, for showing more
+         * than search returned. See DLB.completions(String)
+         */
+        public Completions completions() {
+            if(steps.isEmpty()) return DLB.this.completions(null, "");
+            if(top().node == null) return DLB.this.completions(null, null);
+            return DLB.this.completions(top().node, prefix.toString());
+        }
+
+        public String getPrefix() {
+            return prefix.toString();
+        }
+
+        public int length() {
+            return steps.size();
+        }
+
+        private Step top() {
+            return steps.get(steps.size()-1);
+        }
 
+        private ArrayList<String> suggestions(Node current, int numOfSuggestions) {
+            // A TERMINATOR has no best list, the few words with one inside are searched for
+            if(rankedSize > 0 && current.val == TERMINATOR) {
+                return DLB.this.completions(current, prefix.toString()).nextPage(numOfSuggestions);
+            }
+            if(rankedSize > 0) return getRankedWords(current, numOfSuggestions);
+            StringBuilder str = new StringBuilder(prefix);
+            ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+            getWords(current.child, predictions, str, numOfSuggestions);
+            return predictions;
+        }
+    }
+
+    // One typed character of a SearchCursor
+    private class Step {
+        private final Node node;                // null if the prefix left the DLB
+        private ArrayList<String> suggestions;  // what search returned, null if nothing was asked for
+        private int limit;                      // how many suggestions were asked for
+
+        private Step(Node node) {
+            this.node = node;
+        }
     }
-    private void getWords(Node current, ArrayList<String> predictions, StringBuilder str) {
+
+    private Node find(Node current, char c) {
+        while(current != null) {
+            if(current.val == c) break;
+            current = current.next;
+        }
+        return current;
+    }
+
+    // Finds c in the child list of parent (the root list if parent is null).
+    // Only a list longer than INDEX_THRESHOLD can have an index, so the index
+    // is looked up only once that many siblings were walked
+    private Node findChild(Node parent, char c) {
+        Node current = parent == null ? root : parent.child;
+        for(int i=0; i<INDEX_THRESHOLD && current != null; i++) {
+            if(current.val == c) return current;
+            current = current.next;
+        }
+        if(current == null) return null;
+        ListIndex index = childIndex(parent);
+        if(index != null) return index.get(c);
+        return find(current, c);
+    }
+
+    private void getWords(Node current, ArrayList<String> predictions, StringBuilder str, int numOfSuggestions) {
         if(current == null) return;
         if(predictions.size() >= numOfSuggestions) return;
         if(current.val == TERMINATOR) {
@@ -57,115 +244,1019 @@ public class DLB {
         while(current != null) {
             str.append(current.val);
             // Add all words underneath as predictions:
-            getWords(current.child, predictions, str);
+            getWords(current.child, predictions, str, numOfSuggestions);
             str.deleteCharAt(str.length()-1);
             current = current.next;
         }
     }
 
-    // DELETE
+    private ArrayList<String> getRankedWords(Node current, int numOfSuggestions) {
+        ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+        Terminator[] best = current.best();
+        if(best == null) return predictions;
+        for(Terminator term : best) {
+            if(predictions.size() >= numOfSuggestions) break;
+            predictions.add(term.word);
+        }
+        return predictions;
+    }
 
-    public void deleteCurrentWordWithSuffix(String suffix) {
-        if(cachedNode == null) throw new UnsupportedOperationException("Search not started. Cannot delete");
-        delete(suffix, cachedNodeParent);
+    /**
+     * The characters most likely to be typed after prefix: the ones whose subtree
+     * holds the heaviest word come first (list order in an unranked DLB).
+     * @return up to k characters, none if prefix is not in the DLB
+     */
+    public char[] likelyNextCharacters(String prefix, int k) {
+        Node parent = null;
+        for(int i=0; i<prefix.length(); i++) {
+            parent = findChild(parent, prefix.charAt(i));
+            if(parent == null) return new char[0];
+        }
+
+        ArrayList<Node> children = new ArrayList<>();
+        for(Node child = parent == null ? root : parent.child; child != null; child = child.next) {
+            if(child.val != TERMINATOR) children.add(child);
+        }
+        if(rankedSize > 0) {
+            // Stable sort, subtrees of equal weight stay in list order
+            Collections.sort(children, new Comparator<Node>() {
+                @Override
+                public int compare(Node o1, Node o2) {
+                    return Long.compare(subtreeWeight(o2), subtreeWeight(o1));
+                }
+            });
+        }
+
+        char[] chars = new char[Math.min(k, children.size())];
+        for(int i=0; i<chars.length; i++) chars[i] = children.get(i).val;
+        return chars;
     }
 
-    private void delete(String word, Node current) {
-        Node parent = current;
-        Node child = parent.child;
-        for(char c : word.toCharArray()) {
-            while(child != null) {
-                if(child.val == c) break;
-                child = child.next;
+    private long subtreeWeight(Node node) {
+        Terminator[] best = node.best();
+        return best == null ? Long.MIN_VALUE : best[0].weight;
+    }
+
+    // COMPLETIONS
+
+    /**
+     * Every word that starts with prefix, worked out as it is asked for.
+     * In ranked mode the heaviest come first: the first page is the node's
+     * best list, exactly what search returns, and only the pages after it
+     * search the subtree, heaviest branch first (words of equal weight in
+     * character order). Otherwise words come in the same order as search
+     * returns them.
+     */
+    public Completions completions(String prefix) {
+        Node node = null;
+        for(int i=0; i<prefix.length(); i++) {
+            node = findChild(node, prefix.charAt(i));
+            if(node == null) return completions(null, null);
+        }
+        return completions(node, prefix);
+    }
+
+    // Completions under node (the whole DLB if node is null), none if prefix is null
+    private Completions completions(Node node, String prefix) {
+        Node list = prefix == null ? null : node == null ? root : node.child;
+        if(rankedSize > 0) return new RankedCompletions(node == null ? null : node.best(), list, prefix);
+        return new ListCompletions(list, prefix);
+    }
+
+    // Words in search order: a depth first walk, paused after every word
+    private class ListCompletions extends Completions {
+        private final ArrayDeque<Node> parents = new ArrayDeque<>();
+        private final StringBuilder str;
+        private Node current;
+        private String next = null;
+
+        private ListCompletions(Node list, String prefix) {
+            this.current = list;
+            this.str = new StringBuilder(prefix == null ? "" : prefix);
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null) next = advance();
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            String word = next;
+            next = null;
+            return word;
+        }
+
+        private String advance() {
+            while(true) {
+                while(current == null) {
+                    // End of a list, carry on after its parent
+                    if(parents.isEmpty()) return null;
+                    current = parents.pop().next;
+                    str.deleteCharAt(str.length()-1);
+                }
+                if(current.val == TERMINATOR) {
+                    current = current.next;
+                    return str.toString();
+                }
+                str.append(current.val);
+                parents.push(current);
+                current = current.child;
             }
-            parent = child;
-            if(parent == null) throw new UnsupportedOperationException("Word not in DLB");
-            child = child.child;
         }
+    }
+
+    // Words heaviest first: the best list, then a best first search of the
+    // subtree where a branch's priority is its heaviest word (best[0])
+    private class RankedCompletions extends Completions {
+        private final Terminator[] first;
+        private int firstIndex = 0;
+        private final HashSet<Terminator> handedOut = new HashSet<>();
+        private final Node list;
+        private final String prefix;
+        private PriorityQueue<Candidate> queue = null;
+        private Terminator next = null;
+
+        private RankedCompletions(Terminator[] first, Node list, String prefix) {
+            this.first = first;
+            this.list = list;
+            this.prefix = prefix;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null) next = advance();
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if(!hasNext()) throw new NoSuchElementException();
+            Terminator term = next;
+            next = null;
+            return term.word;
+        }
+
+        private Terminator advance() {
+            if(first != null && firstIndex < first.length) {
+                Terminator term = first[firstIndex++];
+                handedOut.add(term);
+                return term;
+            }
+            if(queue == null) {
+                // Only set up once the first page was not enough
+                queue = new PriorityQueue<>(16, BY_PRIORITY);
+                push(list, prefix);
+            }
+            while(!queue.isEmpty()) {
+                Candidate candidate = queue.poll();
+                Node node = candidate.node;
+                if(node.val != TERMINATOR) push(node.child, candidate.key);
+                else if(!handedOut.contains(node)) return (Terminator) node;
+            }
+            return null;
+        }
+
+        // Queues every branch and word of the list under path
+        private void push(Node list, String path) {
+            for(Node node = list; node != null; node = node.next) {
+                if(node.val == TERMINATOR) {
+                    Terminator term = (Terminator) node;
+                    String word = term.word;
+                    if(word != null) queue.add(new Candidate(term, term.weight, word));
+                } else {
+                    Terminator[] best = node.best();
+                    if(best != null) queue.add(new Candidate(node, best[0].weight, path + node.val));
+                }
+            }
+        }
+    }
+
+    private class Candidate {
+        private final Node node;
+        private final long weight;  // the word's weight, or the heaviest one under a branch
+        private final String key;   // the word, or the branch's path
+
+        private Candidate(Node node, long weight, String key) {
+            this.node = node;
+            this.weight = weight;
+            this.key = key;
+        }
+    }
+
+    // Heaviest first, ties in character order. A branch's words all sort
+    // after its path, so it is searched before the ties that sort after it
+    private static final Comparator<Candidate> BY_PRIORITY = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate o1, Candidate o2) {
+            if(o1.weight != o2.weight) return Long.compare(o2.weight, o1.weight);
+            return o1.key.compareTo(o2.key);
+        }
+    };
 
-        if(child.val == TERMINATOR) {
-            parent.child = child.next;
+    // FUZZY SEARCH
+
+    /**
+     * Completions of words whose beginning is within maxDistance edits
+     * (insertions, deletions, substitutions) of prefix, closest first.
+     *
+     * Walks the DLB carrying one Levenshtein DP row per depth, which simulates a
+     * Levenshtein automaton for prefix. A branch is dropped as soon as every entry
+     * in its row is over the distance searched, so nothing deeper than
+     * prefix.length()+maxDistance is visited. Distances are searched from 0 up,
+     * one walk each, and the search stops once numOfSuggestions words are found,
+     * so a close prefix never pays for the farther ones. Meant for maxDistance 1 or 2.
+     */
+    public ArrayList<String> fuzzySearch(String prefix, int maxDistance, int numOfSuggestions) {
+        ArrayList<String> predictions = new ArrayList<>(Math.max(numOfSuggestions, 0));
+        int m = prefix.length();
+        int[][] rows = new int[m + maxDistance + 1][m + 1];
+        for(int j=0; j<=m; j++) rows[0][j] = j;
+
+        HashSet<String> seen = new HashSet<>();
+        for(int distance=0; distance<=maxDistance && predictions.size() < numOfSuggestions; distance++) {
+            fuzzyWalk(root, prefix, distance, rows, 1, new StringBuilder(), seen, predictions, numOfSuggestions);
+        }
+        return predictions;
+    }
+
+    // Adds the completions of the nodes exactly distance edits from prefix, in DLB order
+    private void fuzzyWalk(Node list, String prefix, int distance, int[][] rows, int depth, StringBuilder path,
+                           HashSet<String> seen, ArrayList<String> predictions, int numOfSuggestions) {
+        if(depth >= rows.length) return;
+        int m = prefix.length();
+        int[] above = rows[depth-1];
+        int[] row = rows[depth];
+
+        for(Node current = list; current != null && predictions.size() < numOfSuggestions; current = current.next) {
+            if(current.val == TERMINATOR) continue;
+
+            row[0] = depth;
+            int min = row[0];
+            for(int j=1; j<=m; j++) {
+                int substitute = above[j-1] + (prefix.charAt(j-1) == current.val ? 0 : 1);
+                row[j] = Math.min(substitute, Math.min(above[j], row[j-1]) + 1);
+                min = Math.min(min, row[j]);
+            }
+            if(min > distance) continue;
+
+            path.append(current.val);
+            if(row[m] == distance) addCompletions(current, path, seen, predictions, numOfSuggestions);
+            fuzzyWalk(current.child, prefix, distance, rows, depth+1, path, seen, predictions, numOfSuggestions);
+            path.deleteCharAt(path.length()-1);
+        }
+    }
+
+    private void addCompletions(Node node, StringBuilder path, HashSet<String> seen, ArrayList<String> predictions, int numOfSuggestions) {
+        // A match can repeat words of a deeper match already used, at most
+        // predictions.size() of them, so numOfSuggestions is enough to fill up
+        ArrayList<String> words;
+        if(rankedSize > 0) {
+            words = getRankedWords(node, numOfSuggestions);
         } else {
-            // In the case the first child of the word isn't the TERMINATOR
-            // Shouldn't happen, but in case it does, delete the terminator from the list
-            while(child.next != null) {
-                if(child.next.val == TERMINATOR) {
-                    child.next = child.next.next;
-                    break;
+            words = new ArrayList<>(numOfSuggestions);
+            getWords(node.child, words, new StringBuilder(path), numOfSuggestions);
+        }
+        for(String word : words) {
+            if(predictions.size() >= numOfSuggestions) break;
+            if(seen.add(word)) predictions.add(word);
+        }
+    }
+
+    // PATTERN SEARCH
+
+    /**
+     * Words matching pattern, at most maxResults of them, with '*' matching
+     * any number of characters. See match(pattern, maxStarLength, maxResults).
+     */
+    public ArrayList<String> match(String pattern, int maxResults) {
+        return match(pattern, -1, maxResults);
+    }
+
+    /**
+     * Words matching pattern, at most maxResults of them, in DLB order.
+     *
+     * In a pattern '.' matches any one character, [abc], [a-z] and [^aeiou]
+     * match one character in (or not in) the class, '*' matches up to
+     * maxStarLength characters (any number if maxStarLength is negative) and
+     * '\' makes the character after it a literal. Any other character matches
+     * itself. The whole word has to match, "c.t" does not match "cats".
+     *
+     * The pattern is run down the DLB as the set of positions in it reached so
+     * far (an NFA), one set per depth. A sibling is only followed if some
+     * position accepts its character, and a branch is dropped as soon as no
+     * position is left, so only the part of the DLB that can still match is
+     * walked. Where every position wants the same literal character the child
+     * is looked up, through the list index, instead of walking the siblings.
+     */
+    public ArrayList<String> match(String pattern, int maxStarLength, int maxResults) {
+        PatternToken[] tokens = compile(pattern, maxStarLength);
+        ArrayList<String> matches = new ArrayList<>();
+        if(maxResults <= 0) return matches;
+
+        ArrayList<long[]> rows = new ArrayList<>();
+        long[] start = row(rows, 0, tokens.length);
+        add(start, 0);
+        closure(tokens, start);
+        matchWalk(null, tokens, rows, 0, new StringBuilder(), matches, maxResults);
+        return matches;
+    }
+
+    // rows.get(depth) holds the pattern positions reached by path, the word
+    // down to parent (the root list if parent is null)
+    private void matchWalk(Node parent, PatternToken[] tokens, ArrayList<long[]> rows, int depth, StringBuilder path, ArrayList<String> matches, int maxResults) {
+        long[] states = rows.get(depth);
+        if(depth > 0 && contains(states, tokens.length) && findChild(parent, TERMINATOR) != null) {
+            matches.add(path.toString());
+            if(matches.size() >= maxResults) return;
+        }
+
+        long[] next = row(rows, depth+1, tokens.length);
+        int literal = onlyLiteral(tokens, states);
+        if(literal >= 0) {
+            Node current = findChild(parent, (char) literal);
+            if(current != null && step(tokens, states, current.val, next)) {
+                path.append(current.val);
+                matchWalk(current, tokens, rows, depth+1, path, matches, maxResults);
+                path.setLength(depth);
+            }
+            return;
+        }
+
+        for(Node current = parent == null ? root : parent.child; current != null; current = current.next) {
+            if(matches.size() >= maxResults) return;
+            if(current.val == TERMINATOR || !step(tokens, states, current.val, next)) continue;
+            path.append(current.val);
+            matchWalk(current, tokens, rows, depth+1, path, matches, maxResults);
+            path.setLength(depth);
+        }
+    }
+
+    // The one literal character every position in states wants next, -1 if
+    // they want more than one character or classes of them
+    private static int onlyLiteral(PatternToken[] tokens, long[] states) {
+        int literal = -1;
+        for(int i=0; i<tokens.length; i++) {
+            if(!contains(states, i)) continue;
+            PatternToken token = tokens[i];
+            if(token.kind != PatternToken.LITERAL || token.optional || token.repeats) return -1;
+            if(literal >= 0 && literal != token.literal) return -1;
+            literal = token.literal;
+        }
+        return literal;
+    }
+
+    // Puts the positions in from that accept c, moved past c, into to.
+    // False if there are none
+    private static boolean step(PatternToken[] tokens, long[] from, char c, long[] to) {
+        Arrays.fill(to, 0L);
+        boolean moved = false;
+        for(int i=0; i<tokens.length; i++) {
+            if(contains(from, i) && tokens[i].matches(c)) {
+                add(to, tokens[i].repeats ? i : i+1);
+                moved = true;
+            }
+        }
+        if(moved) closure(tokens, to);
+        return moved;
+    }
+
+    // Adds the positions reached by matching nothing for optional tokens
+    private static void closure(PatternToken[] tokens, long[] states) {
+        for(int i=0; i<tokens.length; i++) {
+            if(tokens[i].optional && contains(states, i)) add(states, i+1);
+        }
+    }
+
+    // A set of pattern positions 0..positions, positions being the end of the pattern
+    private static long[] row(ArrayList<long[]> rows, int depth, int positions) {
+        while(rows.size() <= depth) rows.add(new long[(positions >> 6) + 1]);
+        return rows.get(depth);
+    }
+
+    private static boolean contains(long[] states, int position) {
+        return (states[position >> 6] & (1L << position)) != 0;
+    }
+
+    private static void add(long[] states, int position) {
+        states[position >> 6] |= 1L << position;
+    }
+
+    private static PatternToken[] compile(String pattern, int maxStarLength) {
+        ArrayList<PatternToken> tokens = new ArrayList<>();
+        for(int i=0; i<pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if(c == '\\') {
+                if(++i == pattern.length()) throw new IllegalArgumentException("Pattern ends in '\\': " + pattern);
+                tokens.add(new PatternToken(PatternToken.LITERAL, pattern.charAt(i), null, false));
+            } else if(c == '.') {
+                tokens.add(new PatternToken(PatternToken.ANY, c, null, false));
+            } else if(c == '*') {
+                if(maxStarLength < 0) {
+                    PatternToken star = new PatternToken(PatternToken.ANY, c, null, false);
+                    star.optional = true;
+                    star.repeats = true;
+                    tokens.add(star);
+                }
+                for(int j=0; j<maxStarLength; j++) {
+                    PatternToken star = new PatternToken(PatternToken.ANY, c, null, false);
+                    star.optional = true;
+                    tokens.add(star);
+                }
+            } else if(c == '[') {
+                int end = i+1;
+                boolean negated = end < pattern.length() && pattern.charAt(end) == '^';
+                if(negated) end++;
+                StringBuilder ranges = new StringBuilder();
+                while(end < pattern.length() && pattern.charAt(end) != ']') {
+                    if(pattern.charAt(end) == '\\') end++;
+                    if(end >= pattern.length()) break;
+                    char low = pattern.charAt(end++);
+                    char high = low;
+                    if(end+1 < pattern.length() && pattern.charAt(end) == '-' && pattern.charAt(end+1) != ']') {
+                        end++;
+                        if(pattern.charAt(end) == '\\') end++;
+                        if(end >= pattern.length()) break;
+                        high = pattern.charAt(end++);
+                    }
+                    if(low > high) throw new IllegalArgumentException("Bad range " + low + "-" + high + " in pattern: " + pattern);
+                    ranges.append(low).append(high);
                 }
-                child.next = child.next.next;
+                if(end >= pattern.length()) throw new IllegalArgumentException("Pattern has an unclosed '[': " + pattern);
+                if(ranges.length() == 0) throw new IllegalArgumentException("Pattern has an empty class: " + pattern);
+                tokens.add(new PatternToken(PatternToken.CLASS, c, ranges.toString().toCharArray(), negated));
+                i = end;
+            } else {
+                tokens.add(new PatternToken(PatternToken.LITERAL, c, null, false));
             }
         }
+        return tokens.toArray(new PatternToken[tokens.size()]);
+    }
+
+    // One position of a compiled pattern, matching one character
+    private static class PatternToken {
+        private static final int LITERAL = 0;
+        private static final int ANY = 1;
+        private static final int CLASS = 2;
+
+        private final int kind;
+        private final char literal;
+        private final char[] ranges;    // CLASS: low, high pairs
+        private final boolean negated;
+        private boolean optional = false;   // can match no character, for '*'
+        private boolean repeats = false;    // can match any number of characters, for an unbounded '*'
+
+        private PatternToken(int kind, char literal, char[] ranges, boolean negated) {
+            this.kind = kind;
+            this.literal = literal;
+            this.ranges = ranges;
+            this.negated = negated;
+        }
+
+        private boolean matches(char c) {
+            if(kind == LITERAL) return c == literal;
+            if(kind == ANY) return true;
+            boolean in = false;
+            for(int i=0; i<ranges.length && !in; i+=2) in = ranges[i] <= c && c <= ranges[i+1];
+            return in != negated;
+        }
+    }
+
+    // DELETE
+
+    public void deleteCurrentWordWithSuffix(String suffix) {
+        if(defaultCursor == null) throw new UnsupportedOperationException("Search not started. Cannot delete");
+        defaultCursor.deleteCurrentWordWithSuffix(suffix);
+    }
+
+    /**
+     * Deletes a word without a search, e.g. one picked from fuzzySearch
+     */
+    public void delete(String word) {
+        Node first = word.isEmpty() ? null : findChild(null, word.charAt(0));
+        if(first == null) throw new UnsupportedOperationException("Word not in DLB");
+        delete(first, word.substring(1), word);
+    }
+
+    private void delete(Node current, String suffix, String word) {
+        synchronized(writeLock) {
+            Node parent = current;
+            for(char c : suffix.toCharArray()) {
+                parent = findChild(parent, c);
+                if(parent == null) throw new UnsupportedOperationException("Word not in DLB");
+            }
+
+            // Unlink the terminator from the list with a single write
+            Node prev = null;
+            Node child = parent.child;
+            while(child != null && child.val != TERMINATOR) {
+                prev = child;
+                child = child.next;
+            }
+            if(child == null) throw new UnsupportedOperationException("Word not in DLB");
+            if(prev == null) parent.child = child.next;
+            else prev.next = child.next;
+            reindex(parent);
+            Terminator term = (Terminator) child;
+            if(term.id >= 0) wordsById.set(term.id, null);
+
+            if(rankedSize > 0) updateBestLists(getPath(word));
+        }
     }
 
     // ADD METHOD
 
     public void add(String word) {
-        add(word+TERMINATOR, 0, root);
+        add(word, 0);
     }
 
-    private Node addCharacterToList(char currentChar, Node prev) {
-        Node current = new Node(currentChar);
-        if(prev == null) {
-            root = current;
-        } else {
-            prev.next = current;
+    /**
+     * Adds a word with a static weight used to rank it in ranked mode.
+     * Adding a word that is already in the DLB replaces its weight.
+     */
+    public void add(String word, long weight) {
+        synchronized(writeLock) {
+            insert(word+TERMINATOR);
+            if(rankedSize <= 0) return;
+
+            ArrayList<Node> path = getPath(word+TERMINATOR);
+            Terminator term = (Terminator) path.remove(path.size()-1);
+            boolean decreased = term.word != null && weight < term.weight;
+            term.word = word;
+            term.weight = weight;
+
+            if(decreased) {
+                // The word may have to fall out of some lists, rebuild them from the children
+                updateBestLists(path);
+            } else {
+                for(Node node : path) {
+                    node.setBest(offer(node.best(), term));
+                }
+            }
         }
-        return current;
     }
 
+    // Builds the nodes for word[from..] as a detached chain
+    private Node chain(String word, int from) {
+        Node first = newNode(word.charAt(from));
+        Node current = first;
+        for(int i=from+1; i<word.length(); i++) {
+            current.child = newNode(word.charAt(i));
+            current = current.child;
+        }
+        return first;
+    }
+
+    // Only terminators hold a word, and only branches of a ranked DLB a best list
+    private Node newNode(char c) {
+        if(c == TERMINATOR) return new Terminator(c);
+        if(rankedSize > 0) return new RankedNode(c);
+        return new Node(c);
+    }
 
-    private void addRemainingCharacters(int currentIndex, String word, Node currentNode) {
-        int i = currentIndex+1;
-        while(i < word.length()) {
-            currentNode.child = new Node(word.charAt(i));
-            currentNode = currentNode.child;
-            i++;
+    // word already ends with the TERMINATOR
+    private void insert(String word) {
+        Node parent = null;
+        for(int i=0; i<word.length(); i++) {
+            char currentChar = word.charAt(i);
+
+            // Walk the list as findChild does, the index only pays off on a long one
+            ListIndex index = null;
+            Node prev = null;
+            Node currentNode = parent == null ? root : parent.child;
+            int length = 0;
+            while(currentNode != null && currentNode.val != currentChar) {
+                if(length == INDEX_THRESHOLD && (index = childIndex(parent)) != null) {
+                    currentNode = index.get(currentChar);
+                    prev = index.last;
+                    break;
+                }
+                prev = currentNode;
+                currentNode = currentNode.next;
+                length++;
+            }
+
+            if(currentNode == null) {
+                // Link the rest of the word in one write so searches never see half of it
+                Node rest = chain(word, i);
+                if(prev != null) prev.next = rest;
+                else if(parent != null) parent.child = rest;
+                else root = rest;
+                if(index != null) setIndex(parent, index.with(rest));
+                else if(length+1 > INDEX_THRESHOLD) reindex(parent);
+                return;
+            }
+
+            parent = currentNode;
         }
     }
 
-    private void add(String word, int currentIndex, Node currentNode) {
-        if(currentIndex >= word.length()) return;
+    // SIBLING LIST INDEX
 
-        char currentChar = word.charAt(currentIndex);
+    // Sorted copy of a long sibling list, for binary search. The linked list is
+    // still the DLB, in its own order; an index is never changed, a writer
+    // replaces it after changing the list, so searches can read it without locking.
+    private static class ListIndex {
+        private final char[] vals;
+        private final Node[] nodes;
+        private final Node last;        // tail of the list, where add links new nodes
 
-        Node prev = currentNode;
-        while(currentNode != null) {
-            if(currentNode.val == currentChar) break;
-            prev = currentNode;
-            currentNode = currentNode.next;
+        private ListIndex(char[] vals, Node[] nodes, Node last) {
+            this.vals = vals;
+            this.nodes = nodes;
+            this.last = last;
         }
 
-        if(currentNode == null) {
-            currentNode = addCharacterToList(currentChar, prev);
+        private Node get(char c) {
+            int lo = 0;
+            int hi = vals.length-1;
+            while(lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if(vals[mid] < c) lo = mid+1;
+                else if(vals[mid] > c) hi = mid-1;
+                else return nodes[mid];
+            }
+            return null;
         }
 
-        if(currentNode.child == null) {
-            // The character has no child list, iteratively add the rest of the word
-            addRemainingCharacters(currentIndex, word, currentNode);
+        // A copy with node (just linked at the tail) added
+        private ListIndex with(Node node) {
+            int size = vals.length;
+            char[] newVals = new char[size+1];
+            Node[] newNodes = new Node[size+1];
+            int i = 0;
+            for(; i<size && vals[i] < node.val; i++) {
+                newVals[i] = vals[i];
+                newNodes[i] = nodes[i];
+            }
+            newVals[i] = node.val;
+            newNodes[i] = node;
+            System.arraycopy(vals, i, newVals, i+1, size-i);
+            System.arraycopy(nodes, i, newNodes, i+1, size-i);
+            return new ListIndex(newVals, newNodes, node);
+        }
+    }
+
+    // Builds (or drops) the index of parent's child list from the list itself
+    private void reindex(Node parent) {
+        Node list = parent == null ? root : parent.child;
+        int length = listLength(list);
+        if(length <= INDEX_THRESHOLD) {
+            setIndex(parent, null);
             return;
         }
 
-        // Recursively add next character
-        add(word, currentIndex+1, currentNode.child);
+        char[] vals = new char[length];
+        Node[] nodes = new Node[length];
+        Node last = null;
+        int size = 0;
+        for(Node current = list; current != null; current = current.next) {
+            // Insertion sort, lists are at most an alphabet long
+            int i = size++;
+            for(; i>0 && vals[i-1] > current.val; i--) {
+                vals[i] = vals[i-1];
+                nodes[i] = nodes[i-1];
+            }
+            vals[i] = current.val;
+            nodes[i] = current;
+            last = current;
+        }
+        setIndex(parent, new ListIndex(vals, nodes, last));
+    }
+
+    private ListIndex childIndex(Node parent) {
+        return parent == null ? rootIndex : childIndexes.get(parent);
+    }
+
+    private void setIndex(Node parent, ListIndex index) {
+        if(parent == null) rootIndex = index;
+        else if(index == null) childIndexes.remove(parent);
+        else childIndexes.put(parent, index);
+    }
+
+    // Indexes every long list, after bulkLoad linked nodes without add()
+    private void indexLists() {
+        reindex(null);
+        ArrayDeque<Node> lists = new ArrayDeque<>();
+        if(root != null) lists.add(root);
+        while(!lists.isEmpty()) {
+            for(Node current = lists.poll(); current != null; current = current.next) {
+                if(current.child == null) continue;
+                reindex(current);
+                lists.add(current.child);
+            }
+        }
+    }
+
+    // WORD IDS
+
+    /**
+     * A number for word that stays the same while the DLB is in memory, so data
+     * about words can be kept in primitive arrays and tables instead of by String.
+     * Ids are handed out in the order they are first asked for.
+     * @return the word's id, or -1 if word is not in the DLB
+     */
+    public int wordId(String word) {
+        synchronized(writeLock) {
+            ArrayList<Node> path = getPath(word + TERMINATOR);
+            if(path.size() <= word.length()) return -1;
+            Terminator term = (Terminator) path.get(path.size()-1);
+            if(term.id < 0) {
+                term.id = wordsById.size();
+                wordsById.add(term);
+                if(term.word == null) term.word = word;
+            }
+            return term.id;
+        }
+    }
+
+    /**
+     * @return the word with this id, or null if it was deleted since
+     */
+    public String word(int id) {
+        synchronized(writeLock) {
+            if(id < 0 || id >= wordsById.size()) return null;
+            Terminator term = wordsById.get(id);
+            return term == null ? null : term.word;
+        }
+    }
+
+    // BULK LOAD
+
+    /**
+     * Adds every line of a word list, see bulkLoad(Iterator)
+     */
+    public boolean bulkLoad(Path file) throws IOException {
+        BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+        try {
+            return bulkLoad(reader.lines().iterator());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Adds all words. When the DLB starts out empty and the words come in
+     * String.compareTo order, every word only differs from the previous one
+     * after their common prefix, and the new character always goes at the end
+     * of the list it belongs to. So the DLB is built in one pass by keeping the
+     * previous word's path, without searching any sibling list.
+     * As soon as a word is out of order the rest are added with add().
+     * @return true if the whole input was loaded in one pass
+     */
+    public boolean bulkLoad(Iterator<String> words) {
+        synchronized(writeLock) {
+            ArrayList<Node> path = new ArrayList<>();   // previous word's nodes, TERMINATOR included
+            String previous = null;
+            boolean sorted = root == null;
+
+            while(words.hasNext()) {
+                String word = words.next();
+                if(sorted && previous != null && word.compareTo(previous) < 0) sorted = false;
+                if(!sorted) {
+                    add(word);
+                    continue;
+                }
+                if(word.equals(previous)) continue;
+
+                int common = 0;
+                if(previous != null) {
+                    int max = Math.min(word.length(), previous.length());
+                    while(common < max && word.charAt(common) == previous.charAt(common)) common++;
+                }
+
+                // The previous word's node at depth common is the tail of the list the new word branches into
+                String rest = word + TERMINATOR;
+                Node first = chain(rest, common);
+                if(previous == null) root = first;
+                else path.get(common).next = first;
+
+                while(path.size() > common) path.remove(path.size()-1);
+                for(Node current = first; current != null; current = current.child) path.add(current);
+
+                if(rankedSize > 0) {
+                    Terminator term = (Terminator) path.get(path.size()-1);
+                    term.word = word;
+                    for(int i=0; i<path.size()-1; i++) {
+                        path.get(i).setBest(offer(path.get(i).best(), term));
+                    }
+                }
+                previous = word;
+            }
+            indexLists();
+            return sorted;
+        }
+    }
+
+    // RANKING
+
+    private static final Comparator<Terminator> BY_WEIGHT = new Comparator<Terminator>() {
+        @Override
+        public int compare(Terminator o1, Terminator o2) {
+            return Long.compare(o2.weight, o1.weight);
+        }
+    };
+
+    // Nodes along a path, in order, stopping early if the path leaves the DLB
+    private ArrayList<Node> getPath(String word) {
+        ArrayList<Node> path = new ArrayList<>(word.length());
+        Node parent = null;
+        for(char c : word.toCharArray()) {
+            Node current = findChild(parent, c);
+            if(current == null) break;
+            path.add(current);
+            parent = current;
+        }
+        return path;
+    }
+
+    // Inserts (or moves up) a terminator whose weight did not decrease.
+    // Ties keep the existing words in front.
+    private Terminator[] offer(Terminator[] best, Terminator term) {
+        int size = best == null ? 0 : best.length;
+        boolean present = false;
+        for(int i=0; i<size; i++) {
+            if(best[i] == term) present = true;
+        }
+        if(!present && size >= rankedSize && term.weight <= best[size-1].weight) return best;
+
+        ArrayList<Terminator> list = new ArrayList<>(size+1);
+        boolean placed = false;
+        for(int i=0; i<size; i++) {
+            if(best[i] == term) continue;
+            if(!placed && term.weight > best[i].weight) {
+                list.add(term);
+                placed = true;
+            }
+            list.add(best[i]);
+        }
+        if(!placed) list.add(term);
+        while(list.size() > rankedSize) list.remove(list.size()-1);
+        return list.toArray(new Terminator[list.size()]);
+    }
+
+    // Rebuilds the lists bottom up by merging the lists of each node's children.
+    // Used when a word is removed or gets lighter.
+    private void updateBestLists(ArrayList<Node> path) {
+        for(int i=path.size()-1; i>=0; i--) {
+            Node node = path.get(i);
+            ArrayList<Terminator> candidates = new ArrayList<>();
+            for(Node child = node.child; child != null; child = child.next) {
+                if(child.val == TERMINATOR) {
+                    Terminator term = (Terminator) child;
+                    if(term.word != null) candidates.add(term);
+                } else if(child.best() != null) {
+                    Collections.addAll(candidates, child.best());
+                }
+            }
+            // Stable sort keeps sibling order between words of equal weight
+            Collections.sort(candidates, BY_WEIGHT);
+            while(candidates.size() > rankedSize) candidates.remove(candidates.size()-1);
+            node.setBest(candidates.isEmpty() ? null : candidates.toArray(new Terminator[candidates.size()]));
+        }
+    }
+
+    // SNAPSHOT
+
+    /**
+     * Writes the DLB for TrieSnapshot, in three parts.
+     * Nodes: the node count, then one record per node (char val, int index of
+     * the first child or -1, byte 1 if last sibling, int rank). Each sibling
+     * list is stored contiguously, lists in breadth first order. rank is where
+     * the node's best list starts in the best lists, or for a TERMINATOR the
+     * index of its word; -1 if it has none.
+     * Best lists: their size in bytes, then each one as a byte length and that
+     * many word indexes, heaviest first.
+     * Words (ranked DLBs only): the count, every word's weight (long), where each
+     * word's chars start (one more for the end of the last word), the chars.
+     */
+    void writeSnapshot(DataOutputStream out) throws IOException {
+        ArrayList<Node> nodes = new ArrayList<>();
+        ArrayDeque<Node> lists = new ArrayDeque<>();
+        if(root != null) lists.add(root);
+        while(!lists.isEmpty()) {
+            for(Node current = lists.poll(); current != null; current = current.next) {
+                nodes.add(current);
+                if(current.child != null) lists.add(current.child);
+            }
+        }
+
+        IdentityHashMap<Node, Integer> wordIndex = new IdentityHashMap<>();
+        ArrayList<Terminator> words = new ArrayList<>();
+        for(Node node : nodes) {
+            if(node.val == TERMINATOR && ((Terminator) node).word != null && rankedSize > 0) {
+                wordIndex.put(node, words.size());
+                words.add((Terminator) node);
+            }
+        }
+
+        out.writeInt(nodes.size());
+        int nextFree = listLength(root);
+        int bestSize = 0;
+        for(Node node : nodes) {
+            int childIndex = -1;
+            if(node.child != null) {
+                childIndex = nextFree;
+                nextFree += listLength(node.child);
+            }
+            int rank = -1;
+            Terminator[] best = node.best();
+            if(node.val == TERMINATOR) {
+                Integer index = wordIndex.get(node);
+                if(index != null) rank = index;
+            } else if(best != null && rankedSize > 0) {
+                rank = bestSize;
+                bestSize += 1 + 4 * best.length;
+            }
+            out.writeChar(node.val);
+            out.writeInt(childIndex);
+            out.writeByte(node.next == null ? 1 : 0);
+            out.writeInt(rank);
+        }
+
+        out.writeInt(bestSize);
+        for(Node node : nodes) {
+            Terminator[] best = node.best();
+            if(node.val == TERMINATOR || best == null || rankedSize <= 0) continue;
+            out.writeByte(best.length);
+            for(Terminator term : best) out.writeInt(wordIndex.get(term));
+        }
+
+        out.writeInt(words.size());
+        for(Terminator term : words) out.writeLong(term.weight);
+        int start = 0;
+        for(Terminator term : words) {
+            out.writeInt(start);
+            start += term.word.length();
+        }
+        out.writeInt(start);
+        for(Terminator term : words) out.writeChars(term.word);
+    }
+
+    private int listLength(Node current) {
+        int length = 0;
+        for(; current != null; current = current.next) length++;
+        return length;
     }
 
     ////// NODE CLASS
 
-    private class Node {
-        public char val;
-        public Node child = null;
-        public Node next = null;
+    // A branch of an unranked DLB. Every node is one of three classes, so
+    // each only carries the fields it uses
+    private static class Node {
+        public final char val;
+        public volatile Node child = null;
+        public volatile Node next = null;
 
         public Node(char val) {
             this.val = val;
         }
 
+        // heaviest terminators underneath, heaviest first, on branches of a ranked DLB
+        public Terminator[] best() {
+            return null;
+        }
+
+        public void setBest(Terminator[] best) {
+        }
+
         public String toString() {
             return ""+val;
         }
     }
 
+    // A branch of a ranked DLB
+    private static final class RankedNode extends Node {
+        private volatile Terminator[] best = null;
+
+        public RankedNode(char val) {
+            super(val);
+        }
+
+        @Override
+        public Terminator[] best() {
+            return best;
+        }
+
+        @Override
+        public void setBest(Terminator[] best) {
+            this.best = best;
+        }
+    }
+
+    // The end of a word, a TERMINATOR node
+    private static final class Terminator extends Node {
+        public long weight = 0;                 // ranked mode only, set before it is put in a best list
+        public volatile String word = null;     // ranked mode, or once given a word id
+        public int id = -1;                     // once given a word id
+
+        public Terminator(char val) {
+            super(val);
+        }
+    }
+
     private void printHelper(StringBuilder str, Node current) {
         str.append('[');
         Node c = current;
@@ -0,0 +1,173 @@
+/**
+ * Frequency score that decays exponentially with time, so words used a lot
+ * long ago slowly give way to words used recently.
+ *
+ * A word's decayed frequency at time t is the sum of 2^-(t - use)/halfLife
+ * over its uses. Decaying every score on every tick would mean rewriting the
+ * whole history, so instead scores are kept relative to a global epoch that
+ * grows with time: a use at time t is worth 2^epoch(t) and a score is stored
+ * as the log2 of its sum, in fixed point (UNITS per half-life) in a long.
+ * Decay then costs nothing: all scores shrink by the same factor, which never
+ * changes their order, and the real frequency is 2^(score - epoch(now)).
+ *
+ * One more use adds log2(1 + 1/frequency) to a score, which gets small for
+ * frequent words. UNITS is fine enough that it still counts, and counts right
+ * to well under 1%, for millions of uses per half-life.
+ *
+ * Scores are absolute, not relative to when they were loaded, so saving one
+ * and reading it back later gives the same ranking and the right decay.
+ *
+ * Usage: java DecayedFrequency checks the precision of frequent words.
+ */
+public class DecayedFrequency {
+    public static final long DEFAULT_HALF_LIFE = 30L * 24 * 60 * 60 * 1000;  // 30 days
+    // Score of a word that was never used
+    public static final long NEVER = Long.MIN_VALUE;
+    // Fixed point score units in one half-life
+    public static final long UNITS = 1L << 24;
+    // Units of files saved before scores were longs, their header has no units
+    public static final long OLD_UNITS = 1L << 12;
+    // The epoch fits a long for 2^63 / UNITS = 2^39 half-lives after 1970,
+    // and a half-life's millis times UNITS have to fit too
+    public static final long MIN_HALF_LIFE = 24L * 60 * 60 * 1000;  // 1 day
+    // First line of a file of scores, followed by the half-life and units they were made with
+    public static final String HEADER = "#decayed";
+
+    private final long halfLife;
+
+    public DecayedFrequency() {
+        this(DEFAULT_HALF_LIFE);
+    }
+
+    public DecayedFrequency(long halfLifeMillis) {
+        if(halfLifeMillis < MIN_HALF_LIFE) throw new IllegalArgumentException("half-life must be at least a day");
+        this.halfLife = halfLifeMillis;
+    }
+
+    public long getHalfLife() {
+        return halfLife;
+    }
+
+    /**
+     * The global epoch: what one use at time now is worth, in score units
+     */
+    public long epoch(long now) {
+        return epoch(halfLife, UNITS, now);
+    }
+
+    private static long epoch(long halfLife, long units, long now) {
+        return now / halfLife * units + now % halfLife * units / halfLife;
+    }
+
+    /**
+     * @return the score after one more use at time now
+     */
+    public long increment(long score, long now) {
+        long use = epoch(now);
+        if(score == NEVER) return use;
+        // log2(2^a + 2^b) = max + log2(1 + 2^-(max - min))
+        long high = Math.max(score, use);
+        long low = Math.min(score, use);
+        double gap = (double) (high - low) / UNITS;
+        return high + Math.round(UNITS * log2(1 + Math.pow(2, -gap)));
+    }
+
+    /**
+     * @return the score of a word used {@code frequency} times at time now
+     */
+    public long fromFrequency(double frequency, long now) {
+        if(frequency <= 0) return NEVER;
+        return epoch(now) + Math.round(UNITS * log2(frequency));
+    }
+
+    /**
+     * @return the decayed frequency of score at time now
+     */
+    public double frequency(long score, long now) {
+        if(score == NEVER) return 0;
+        return Math.pow(2, (double) (score - epoch(now)) / UNITS);
+    }
+
+    /**
+     * Converts a score saved with another half-life or units, or a plain use
+     * count (fromHalfLife 0, the old user_history.txt format), to this one
+     */
+    public long convert(long value, long fromHalfLife, long fromUnits, long now) {
+        if(fromHalfLife <= 0) return fromFrequency(value, now);
+        if(value == NEVER) return NEVER;
+        // Same half-life, the same score in other units: exact, whenever it is loaded
+        if(fromHalfLife == halfLife) return fromUnits == UNITS ? value : Math.round((double) value * UNITS / fromUnits);
+        // Files from when shorter half-lives were allowed still convert
+        return fromFrequency(Math.pow(2, (double) (value - epoch(fromHalfLife, fromUnits, now)) / fromUnits), now);
+    }
+
+    public String header() {
+        return HEADER + " " + halfLife + " " + UNITS;
+    }
+
+    /**
+     * @return the half-life in a header line, or 0 if line is not a header (plain counts)
+     */
+    public static long parseHeader(String line) {
+        String[] fields = headerFields(line);
+        return fields == null ? 0 : parse(fields[1]);
+    }
+
+    /**
+     * @return the units in a header line, OLD_UNITS if it has none
+     */
+    public static long parseUnits(String line) {
+        String[] fields = headerFields(line);
+        long units = fields == null || fields.length < 3 ? 0 : parse(fields[2]);
+        return units > 0 ? units : OLD_UNITS;
+    }
+
+    private static String[] headerFields(String line) {
+        if(!line.startsWith(HEADER + " ")) return null;
+        return line.trim().split("\\s+");
+    }
+
+    private static long parse(String field) {
+        try {
+            return Long.parseLong(field);
+        } catch(NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    // Counts uses one by one, as the history does, and compares with the exact decayed frequency
+    private static double check(DecayedFrequency decay, int uses, long spread, long now) {
+        long score = NEVER;
+        double exact = 0;
+        for(int i=0; i<uses; i++) {
+            long time = now - spread + spread * i / uses;
+            score = decay.increment(score, time);
+            exact += Math.pow(2, -(double) (now - time) / decay.getHalfLife());
+        }
+        double frequency = decay.frequency(score, now);
+        double error = Math.abs(frequency - exact) / exact;
+        System.out.printf("%,7d uses over %,5.1f days: %,12.1f, exact %,12.1f, %.4f%% off%n",
+                uses, spread / 86400000.0, frequency, exact, 100 * error);
+        return error <= 0.01 ? frequency : -1;
+    }
+
+    public static void main(String[] args) {
+        DecayedFrequency decay = new DecayedFrequency();
+        long now = System.currentTimeMillis();
+        boolean ok = true;
+        for(long spread : new long[] {0, decay.getHalfLife()}) {
+            double previous = 0;
+            for(int uses : new int[] {5000, 10000, 20000, 30000}) {
+                double frequency = check(decay, uses, spread, now);
+                ok &= frequency > previous;
+                previous = frequency;
+            }
+        }
+        System.out.println(ok ? "Frequent words stay in order and within 1%" : "FAILED");
+        if(!ok) System.exit(1);
+    }
+}
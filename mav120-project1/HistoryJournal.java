@@ -0,0 +1,224 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Keeps the user history on disk as a snapshot plus an append-only journal.
+ *
+ * Every increment appends one "word,score" line (the new decayed frequency
+ * score, see DecayedFrequency) to the journal right away, so a completed word
+ * costs one small write and survives the process dying. Every so often the
+ * whole history is compacted into the snapshot and the journal is emptied.
+ * Both files start with a header line holding the half-life and units of
+ * their scores; a file without one holds plain use counts (the old format).
+ * Files made with other settings are converted once, when they are loaded.
+ *
+ * Journal lines hold the new score rather than +1, so replaying a line
+ * that is already in the snapshot does nothing. That makes a crash between
+ * replacing the snapshot and emptying the journal harmless.
+ *
+ * Increments from many threads run at once: the history is a
+ * ConcurrentHistoryTrie and each journal line is a single write. Lines of one
+ * word can end up out of order, so replaying keeps a word's highest score,
+ * which is its newest since scores never go down. Only compaction stops
+ * increments, for as long as it takes to write the snapshot.
+ */
+public class HistoryJournal {
+    private final ConcurrentHistoryTrie history;
+    private final DecayedFrequency decay;
+    private final File snapshotFile;
+    private final File journalFile;
+    // Increments share it, compaction takes it alone
+    private final ReentrantReadWriteLock compactionLock = new ReentrantReadWriteLock();
+
+    private FileOutputStream journal;
+    private final AtomicInteger entriesSinceCompaction = new AtomicInteger();
+    private Thread compactor;
+    private final Object compactorSignal = new Object();
+    private volatile boolean compacting = false;
+
+    public HistoryJournal(ConcurrentHistoryTrie history, File snapshotFile, File journalFile) {
+        this(history, new DecayedFrequency(), snapshotFile, journalFile);
+    }
+
+    public HistoryJournal(ConcurrentHistoryTrie history, DecayedFrequency decay, File snapshotFile, File journalFile) {
+        this.history = history;
+        this.decay = decay;
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Loads the snapshot, replays the journal on top and opens the journal for appending.
+     * @return false if there was no history on disk yet
+     */
+    public boolean load() throws IOException {
+        int snapshotEntries = replay(snapshotFile);
+        // Appending after a cut off line would glue the next word onto it
+        if(journalFile.exists()) truncateTornLine(journalFile);
+        int journalEntries = replay(journalFile);
+        // Left over journal entries get compacted away on the next compaction
+        entriesSinceCompaction.set(Math.max(journalEntries, 0));
+        boolean oldJournal = journalFile.length() > 0 && !hasCurrentHeader(journalFile);
+        boolean oldSnapshot = snapshotFile.length() > 0 && !hasCurrentHeader(snapshotFile);
+        journal = new FileOutputStream(journalFile, true);
+        if(journalFile.length() == 0) writeHeader();
+        if(oldJournal || oldSnapshot) {
+            // Counts, or scores with another half-life or units: rewrite them once instead of
+            // converting them on every load, and before new lines are appended under the old header
+            entriesSinceCompaction.set(Math.max(entriesSinceCompaction.get(), 1));
+            compact();
+        }
+        return snapshotEntries >= 0 || journalEntries >= 0;
+    }
+
+    // A crash can cut off the last journal line, drops everything after the last '\n'
+    private static void truncateTornLine(File file) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long end = raf.length();
+            while(end > 0) {
+                raf.seek(end-1);
+                if(raf.read() == '\n') break;
+                end--;
+            }
+            if(end < raf.length()) raf.setLength(end);
+        }
+    }
+
+    // Applies every "word,score" line of a file, keeping the highest score of a word. Returns the number of lines or -1 if there is no file.
+    // The journal's cut off line is truncated before, so a line that does not parse means the file is damaged
+    private int replay(File file) throws IOException {
+        if(!file.exists()) return -1;
+        try(BufferedReader in = new BufferedReader(new FileReader(file))) {
+            long now = System.currentTimeMillis();
+            long halfLife = 0;
+            long units = 0;
+            int lines = 0;
+            int lineNumber = 1;
+            String line = in.readLine();
+            if(line != null && line.startsWith(DecayedFrequency.HEADER)) {
+                halfLife = DecayedFrequency.parseHeader(line);
+                units = DecayedFrequency.parseUnits(line);
+                line = in.readLine();
+                lineNumber++;
+            }
+            for(; line != null; line = in.readLine(), lineNumber++) {
+                int commaIndex = line.lastIndexOf(',');
+                long score;
+                try {
+                    if(commaIndex < 0) throw new NumberFormatException("no ','");
+                    score = Long.parseLong(line.substring(commaIndex+1));
+                } catch(NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + " is not a \"word,score\" line: " + line);
+                }
+                history.raise(line.substring(0, commaIndex), decay.convert(score, halfLife, units, now));
+                lines++;
+            }
+            return lines;
+        }
+    }
+
+    private boolean hasCurrentHeader(File file) throws IOException {
+        try(BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line = in.readLine();
+            return line != null && line.equals(decay.header());
+        }
+    }
+
+    private void writeHeader() throws IOException {
+        journal.write((decay.header() + "\n").getBytes());
+    }
+
+    /**
+     * Counts one use of the word now and journals its new score.
+     * Safe to call from many threads at once
+     * @return the new score
+     */
+    public long increment(String word) throws IOException {
+        compactionLock.readLock().lock();
+        try {
+            long score = history.increment(word, decay, System.currentTimeMillis());
+            // One write per line, so lines of threads writing at once do not mix
+            journal.write((word + "," + score + "\n").getBytes());
+            entriesSinceCompaction.incrementAndGet();
+            return score;
+        } finally {
+            compactionLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the whole history into the snapshot and empties the journal.
+     * The new snapshot replaces the old one with an atomic rename.
+     */
+    public void compact() throws IOException {
+        compactionLock.writeLock().lock();
+        try {
+            if(entriesSinceCompaction.get() == 0 && snapshotFile.exists()) return;
+
+            File tmp = new File(snapshotFile.getPath() + ".tmp");
+            FileOutputStream file = new FileOutputStream(tmp);
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(file)));
+            out.print(decay.header() + "\n");
+            history.write(out);
+            out.flush();
+            file.getFD().sync();
+            out.close();
+            Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            journal.getChannel().truncate(0);
+            writeHeader();
+            entriesSinceCompaction.set(0);
+        } finally {
+            compactionLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Compacts in a background thread every periodMillis, when something changed
+     */
+    public void startCompaction(final long periodMillis) {
+        compacting = true;
+        compactor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Stopped through the flag, an interrupt would close the journal's channel
+                while(compacting) {
+                    try {
+                        synchronized(compactorSignal) {
+                            compactorSignal.wait(periodMillis);
+                        }
+                        if(compacting) compact();
+                    } catch(InterruptedException e) {
+                        return;
+                    } catch(IOException e) {
+                        System.out.println("Error compacting word history ... ");
+                    }
+                }
+            }
+        }, "history-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Stops the background thread, compacts one last time and closes the journal
+     */
+    public void close() throws IOException {
+        if(compactor != null) {
+            compacting = false;
+            synchronized(compactorSignal) {
+                compactorSignal.notifyAll();
+            }
+            try {
+                compactor.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        compact();
+        journal.close();
+    }
+}
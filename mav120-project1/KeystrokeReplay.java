@@ -0,0 +1,165 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Replays a keystroke trace through ac_test's predictions, without prompts,
+ * and reports throughput and per-keystroke latency percentiles.
+ *
+ * Usage:
+ *   java KeystrokeReplay [-speculative] <trace file> [dictionary file]
+ *   java KeystrokeReplay [-speculative] -random <number of words> [dictionary file]
+ *
+ * A trace uses the same keys as ac_test: characters, 1-5 to pick a prediction
+ * (or a next word prediction before the first character), '$' to finish the
+ * word as typed, '<' to erase, '!' to stop. Every whitespace separated token
+ * is typed one character at a time, so "the$ th1" and a file with one key per
+ * line (a recorded ac_test session) both work.
+ *
+ * Every keystroke goes through ac_test.typeKey, the same code the interactive
+ * loop runs, so the prediction cache, the close matches and, with
+ * -speculative, the prefetcher are all in the numbers. History is kept in
+ * memory only, user_history.txt and user_ngrams.txt are never read or written.
+ */
+public class KeystrokeReplay {
+    public static final int NUM_SUGGESTIONS = ac_test.NUM_SUGGESTIONS;
+    public static final char BACKSPACE = ac_test.BACKSPACE;
+    // Keys that are not characters in a trace
+    private static final String COMMANDS = "12345$" + BACKSPACE + "!";
+
+    private String[] results = new String[NUM_SUGGESTIONS];
+
+    private long[] latencies = new long[1024];
+    private int keystrokes = 0;
+    private int wordsCompleted = 0;
+
+    // REPLAY
+
+    public void replay(Reader trace) throws IOException {
+        results = ac_test.newWord();
+        BufferedReader in = new BufferedReader(trace);
+        String line;
+        while((line = in.readLine()) != null) {
+            for(String token : line.trim().split("\\s+")) {
+                for(int i=0; i<token.length(); i++) {
+                    char c = token.charAt(i);
+                    if(c == '!') return;
+                    keystroke(c);
+                }
+            }
+        }
+    }
+
+    // What ac_test's loop does with the key, without the prompts
+    private void keystroke(char c) {
+        long startTime = System.nanoTime();
+        results = ac_test.typeKey(c, results, false);
+        record(System.nanoTime() - startTime);
+        // Back to no word without erasing it: a word was completed
+        if(ac_test.currentWord.length() == 0 && c != BACKSPACE) wordsCompleted++;
+    }
+
+    private void record(long time) {
+        if(keystrokes == latencies.length) latencies = Arrays.copyOf(latencies, keystrokes*2);
+        latencies[keystrokes++] = time;
+    }
+
+    // REPORT
+
+    private static double percentile(long[] sorted, double p) {
+        if(sorted.length == 0) return 0;
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length-1))] / 1000.0;
+    }
+
+    public void printReport(long wallTime) {
+        long[] sorted = Arrays.copyOf(latencies, keystrokes);
+        Arrays.sort(sorted);
+        long total = 0;
+        for(long time : sorted) total += time;
+
+        System.out.println("Keystrokes:      " + keystrokes);
+        System.out.println("Words completed: " + wordsCompleted);
+        System.out.printf("Throughput:      %.0f keystrokes/s%n", keystrokes / (wallTime / ac_test.NANOSECS_PER_SEC));
+        System.out.printf("Latency (us):    mean %.2f  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                keystrokes == 0 ? 0 : total / 1000.0 / keystrokes,
+                percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99),
+                percentile(sorted, 99.9), percentile(sorted, 100));
+        System.out.println("Prediction cache: " + ac_test.predictionCache);
+        if(ac_test.prefetcher != null) System.out.println("Prefetched:       " + ac_test.prefetcher);
+    }
+
+    // Random words from the dictionary: some typed out with '$', some picked
+    // from the predictions after a few characters, some with a typo erased.
+    // Words a trace cannot type, with keys that are commands or whitespace, are left out
+    private static String randomTrace(List<String> words, int count, long seed) {
+        List<String> typeable = new ArrayList<>();
+        for(String word : words) {
+            if(isTypeable(word)) typeable.add(word);
+        }
+        Random random = new Random(seed);
+        StringBuilder trace = new StringBuilder();
+        for(int i=0; i<count && !typeable.isEmpty(); i++) {
+            String word = typeable.get(random.nextInt(typeable.size()));
+            int kind = random.nextInt(3);
+            if(kind == 0) {
+                trace.append(word).append('$');
+            } else if(kind == 1) {
+                trace.append(word, 0, 1 + random.nextInt(word.length()));
+                trace.append(1 + random.nextInt(NUM_SUGGESTIONS));
+            } else {
+                int typo = random.nextInt(word.length());
+                trace.append(word, 0, typo).append('q').append(BACKSPACE).append(word.substring(typo)).append('$');
+            }
+            trace.append('\n');
+        }
+        return trace.toString();
+    }
+
+    private static boolean isTypeable(String word) {
+        if(word.isEmpty()) return false;
+        for(int i=0; i<word.length(); i++) {
+            char c = word.charAt(i);
+            if(COMMANDS.indexOf(c) > -1 || Character.isWhitespace(c)) return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        boolean speculative = args.length > 0 && args[0].equals("-speculative");
+        if(speculative) args = Arrays.copyOfRange(args, 1, args.length);
+        if(args.length < 1 || (args[0].equals("-random") && args.length < 2)) {
+            System.out.println("Usage: java KeystrokeReplay [-speculative] <trace file> [dictionary file]");
+            System.out.println("       java KeystrokeReplay [-speculative] -random <number of words> [dictionary file]");
+            return;
+        }
+        boolean random = args[0].equals("-random");
+        String dictionaryFile = args.length > (random ? 2 : 1) ? args[random ? 2 : 1] : "dictionary.txt";
+
+        KeystrokeReplay replay = new KeystrokeReplay();
+        try {
+            long startTime = System.nanoTime();
+            ac_test.dictionary.bulkLoad(Paths.get(dictionaryFile));
+            ac_test.dictionaryReady(speculative);
+            System.out.printf("Dictionary:      %s loaded in %.3f s%n", dictionaryFile, (System.nanoTime() - startTime) / ac_test.NANOSECS_PER_SEC);
+
+            Reader trace;
+            if(random) {
+                List<String> words = Files.readAllLines(Paths.get(dictionaryFile));
+                trace = new StringReader(randomTrace(words, Integer.parseInt(args[1]), 1501));
+            } else {
+                trace = new FileReader(args[0]);
+            }
+
+            startTime = System.nanoTime();
+            replay.replay(trace);
+            long wallTime = System.nanoTime() - startTime;
+            trace.close();
+            if(ac_test.prefetcher != null) ac_test.prefetcher.close();
+            replay.printReport(wallTime);
+        } catch(IOException e) {
+            System.out.println("Error replaying: " + e.getMessage());
+        }
+    }
+}
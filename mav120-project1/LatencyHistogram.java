@@ -0,0 +1,97 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets.
+ *
+ * Values below 16 get a bucket each. Above that, every power of two is split
+ * into 16 buckets, so any recorded value is within about 6% of its bucket.
+ * All buckets are allocated up front and record() only increments a counter,
+ * so recording allocates nothing and costs a few nanoseconds.
+ * Not thread-safe, use one histogram per thread.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final long[] counts = new long[BUCKETS];
+    private long total = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public void record(long nanos) {
+        if(nanos < 0) nanos = 0;
+        counts[bucket(nanos)]++;
+        total++;
+        sum += nanos;
+        if(nanos > max) max = nanos;
+    }
+
+    private static int bucket(long value) {
+        if(value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS-1);
+        return (shift + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // Largest value that falls in the bucket
+    private static long highestValue(int bucket) {
+        if(bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the latency that percentile of the recorded values are at or under,
+     *     rounded up to its bucket (never more than the max)
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank) return Math.min(highestValue(i), max);
+        }
+        return max;
+    }
+
+    public long getCount() {
+        return total;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return total == 0 ? 0 : (double) sum / total;
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    /**
+     * Prints one line: count, mean, p50/p90/p99/p99.9 and max in microseconds
+     */
+    public void print(PrintStream out) {
+        out.printf("%-12s n=%-8d mean %9.2f  p50 %9.2f  p90 %9.2f  p99 %9.2f  p99.9 %9.2f  max %9.2f  (us)%n",
+                name, total, getMean() / 1000.0,
+                getValueAtPercentile(50) / 1000.0, getValueAtPercentile(90) / 1000.0,
+                getValueAtPercentile(99) / 1000.0, getValueAtPercentile(99.9) / 1000.0,
+                max / 1000.0);
+    }
+}
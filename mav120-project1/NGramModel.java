@@ -0,0 +1,266 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Predicts the next word from the words completed before it.
+ *
+ * Every completed word is counted as following the word before it (bigram)
+ * and the two words before it (trigram). Words are kept as their DLB word
+ * ids, so the counts live in two open addressing tables of primitives: the
+ * key is the context, one id or two packed in a long, and the value is the
+ * context's successors as (id, count) pairs in one int[], most frequent first.
+ * predict() reads the successors of the last two words, then of the last
+ * word, so it costs two table lookups and no search.
+ *
+ * A context keeps at most maxSuccessors words. When it is full, a new word
+ * takes the place of the least frequent one and its count, so words that are
+ * starting to be used can still climb in.
+ *
+ * Counts are saved as words, one n-gram per line: the words separated by tabs,
+ * then ',' and the count. Word ids only hold while the DLB is in memory.
+ *
+ * Not thread-safe.
+ */
+public class NGramModel {
+    private static final int NO_WORD = -1;
+    private static final String SEPARATOR = "\t";
+
+    private final DLB dictionary;
+    private final int maxSuccessors;
+    private final ContextTable bigrams = new ContextTable();
+    private final ContextTable trigrams = new ContextTable();
+
+    // The last two words completed
+    private int previous = NO_WORD;
+    private int beforePrevious = NO_WORD;
+
+    /**
+     * @param maxSuccessors how many next words to count after each context
+     */
+    public NGramModel(DLB dictionary, int maxSuccessors) {
+        this.dictionary = dictionary;
+        this.maxSuccessors = maxSuccessors;
+    }
+
+    // MODEL
+
+    /**
+     * Counts word as the next word after the ones completed before it
+     */
+    public void observe(String word) {
+        int id = dictionary.wordId(word);
+        if(id == NO_WORD) {
+            // Not in the dictionary, start over from the next word
+            reset();
+            return;
+        }
+        count(beforePrevious, previous, id, 1);
+        beforePrevious = previous;
+        previous = id;
+    }
+
+    /**
+     * Forgets the words completed so far, the next word has no context
+     */
+    public void reset() {
+        previous = NO_WORD;
+        beforePrevious = NO_WORD;
+    }
+
+    private void count(int first, int second, int next, int times) {
+        if(second == NO_WORD) return;
+        bigrams.add(second, next, times, maxSuccessors);
+        if(first != NO_WORD) trigrams.add(pack(first, second), next, times, maxSuccessors);
+    }
+
+    private static long pack(int first, int second) {
+        return ((long) first << 32) | (second & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return up to n words likely to come next, most likely first, null after the last one
+     */
+    public String[] predict(int n) {
+        String[] results = new String[n];
+        int[] ids = new int[n];
+        int found = 0;
+        if(beforePrevious != NO_WORD) found = collect(trigrams.get(pack(beforePrevious, previous)), results, ids, found);
+        if(previous != NO_WORD) found = collect(bigrams.get(previous), results, ids, found);
+        return results;
+    }
+
+    // Adds the successors not in results yet, stops when results are full
+    private int collect(int[] successors, String[] results, int[] ids, int found) {
+        if(successors == null) return found;
+        for(int i=0; i<successors[0] && found < results.length; i++) {
+            int id = successors[1 + 2*i];
+            boolean seen = false;
+            for(int j=0; j<found && !seen; j++) seen = ids[j] == id;
+            if(seen) continue;
+            String word = dictionary.word(id);
+            if(word == null) continue;      // deleted
+            ids[found] = id;
+            results[found++] = word;
+        }
+        return found;
+    }
+
+    // FILES
+
+    /**
+     * Adds the counts saved in file, skipping n-grams with words not in the dictionary
+     * @return false if there is no such file
+     */
+    public boolean load(File file) throws IOException {
+        if(!file.exists()) return false;
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while((line = in.readLine()) != null) {
+                int comma = line.lastIndexOf(',');
+                if(comma < 0) continue;
+                String[] words = line.substring(0, comma).split(SEPARATOR);
+                int times = Integer.parseInt(line.substring(comma+1).trim());
+                if(words.length < 2 || words.length > 3) continue;
+                int[] ids = new int[3];
+                Arrays.fill(ids, NO_WORD);
+                boolean known = true;
+                for(int i=0; i<words.length && known; i++) {
+                    ids[3 - words.length + i] = dictionary.wordId(words[i]);
+                    known = ids[3 - words.length + i] != NO_WORD;
+                }
+                if(!known) continue;
+                if(words.length == 2) bigrams.add(ids[1], ids[2], times, maxSuccessors);
+                else trigrams.add(pack(ids[0], ids[1]), ids[2], times, maxSuccessors);
+            }
+        } finally {
+            in.close();
+        }
+        return true;
+    }
+
+    /**
+     * Writes every count to file, replacing what was there
+     */
+    public void save(File file) throws IOException {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file)));
+        try {
+            bigrams.write(out, dictionary, false);
+            trigrams.write(out, dictionary, true);
+        } finally {
+            out.close();
+        }
+        if(out.checkError()) throw new IOException("Cannot write " + file);
+    }
+
+    public int size() {
+        return bigrams.size + trigrams.size;
+    }
+
+    public String toString() {
+        return String.format("%d bigram and %d trigram contexts", bigrams.size, trigrams.size);
+    }
+
+    // Open addressing from a context to its successors, linear probing
+    private static class ContextTable {
+        private static final long EMPTY = -1L;      // ids are never negative
+
+        private long[] keys = newKeys(16);
+        // successors[0] is how many pairs are used, then (id, count) pairs by count, highest first
+        private int[][] successors = new int[16][];
+        private int size = 0;
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private int slot(long key) {
+            int mask = keys.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+            while(keys[i] != EMPTY && keys[i] != key) i = (i + 1) & mask;
+            return i;
+        }
+
+        private int[] get(long key) {
+            return successors[slot(key)];
+        }
+
+        private void add(long key, int next, int times, int maxSuccessors) {
+            int i = slot(key);
+            if(keys[i] == EMPTY) {
+                if(4 * (size + 1) > 3 * keys.length) {
+                    grow();
+                    i = slot(key);
+                }
+                keys[i] = key;
+                successors[i] = new int[1 + 2 * Math.min(2, maxSuccessors)];
+                size++;
+            }
+            successors[i] = add(successors[i], next, times, maxSuccessors);
+        }
+
+        private static int[] add(int[] list, int next, int times, int maxSuccessors) {
+            int used = list[0];
+            int at = 0;
+            while(at < used && list[1 + 2*at] != next) at++;
+            if(at == used) {
+                if(used < maxSuccessors) {
+                    if(1 + 2*used == list.length) list = Arrays.copyOf(list, 1 + 2 * Math.min(2*used, maxSuccessors));
+                    list[0] = ++used;
+                    list[1 + 2*at] = next;
+                    list[2 + 2*at] = 0;
+                } else {
+                    // Full: take over the least frequent word's place and count
+                    at = used - 1;
+                    list[1 + 2*at] = next;
+                }
+            }
+            list[2 + 2*at] += times;
+            if(list[2 + 2*at] < 0) list[2 + 2*at] = Integer.MAX_VALUE;
+
+            // Move up past the words it now outnumbers
+            while(at > 0 && list[2*at] < list[2 + 2*at]) {
+                int id = list[1 + 2*at];
+                int count = list[2 + 2*at];
+                list[1 + 2*at] = list[2*at - 1];
+                list[2 + 2*at] = list[2*at];
+                list[2*at - 1] = id;
+                list[2*at] = count;
+                at--;
+            }
+            return list;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[][] oldSuccessors = successors;
+            keys = newKeys(2 * oldKeys.length);
+            successors = new int[keys.length][];
+            for(int j=0; j<oldKeys.length; j++) {
+                if(oldKeys[j] == EMPTY) continue;
+                int i = slot(oldKeys[j]);
+                keys[i] = oldKeys[j];
+                successors[i] = oldSuccessors[j];
+            }
+        }
+
+        private void write(PrintWriter out, DLB dictionary, boolean packed) {
+            for(int j=0; j<keys.length; j++) {
+                if(keys[j] == EMPTY) continue;
+                String context = dictionary.word((int) keys[j]);
+                if(packed && context != null) {
+                    String first = dictionary.word((int) (keys[j] >>> 32));
+                    context = first == null ? null : first + SEPARATOR + context;
+                }
+                if(context == null) continue;       // has a deleted word
+                int[] list = successors[j];
+                for(int i=0; i<list[0]; i++) {
+                    String word = dictionary.word(list[1 + 2*i]);
+                    if(word != null) out.println(context + SEPARATOR + word + "," + list[2 + 2*i]);
+                }
+            }
+        }
+    }
+}
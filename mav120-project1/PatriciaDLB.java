@@ -0,0 +1,248 @@
+import java.util.ArrayList;
+
+/**
+ * DLB with path compression (a radix or Patricia trie built from sibling lists).
+ *
+ * A chain of nodes that each have a single child is stored as one node whose
+ * label holds all of their characters, so the unique tail of a word is one
+ * node instead of one per character. Labels include the TERMINATOR: a word
+ * ends on a leaf whose label ends with it. add splits a node when a new word
+ * leaves its label part way, delete merges a node with its child again when
+ * it is left with only one. Same search/add/delete API as DLB.
+ */
+public class PatriciaDLB {
+    public int numOfSuggestions = 5;
+
+    private final char TERMINATOR = '$';
+
+    private Node root = null;
+    private int nodeCount = 0;
+
+    // The node the prefix typed so far ends in, and how much of its label it matched
+    private Node cachedNode = null;
+    private int cachedOffset = 0;
+    private boolean searching = false;
+    private StringBuilder prefix;
+
+
+    // SEARCH METHOD
+    public void startNewSearch() {
+        prefix = new StringBuilder();
+        cachedNode = null;
+        cachedOffset = 0;
+        searching = true;
+    }
+
+    public ArrayList<String> search(char c, int numOfSuggestions) {
+        this.numOfSuggestions = numOfSuggestions;
+        return search(c);
+    }
+
+    public ArrayList<String> search(char c) {
+        prefix.append(c);
+        if(!searching) return null;
+
+        Node current = cachedNode;
+        if(current != null && cachedOffset < current.label.length()) {
+            // Still inside a label, only one character can follow
+            if(current.label.charAt(cachedOffset) == c) cachedOffset++;
+            else current = null;
+        } else {
+            current = find(current == null ? root : current.child, c);
+            cachedOffset = 1;
+        }
+
+        if(current == null) {
+            // Could not find the character, stop searching this tree on new characters
+            cachedNode = null;
+            searching = false;
+            return null;
+        }
+        cachedNode = current;
+
+        if(numOfSuggestions <= 0) return null;
+        StringBuilder str = new StringBuilder(prefix);
+        str.append(current.label, cachedOffset, current.label.length());
+        ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+        getWords(current, predictions, str);
+        return predictions;
+    }
+
+    private Node find(Node current, char c) {
+        while(current != null) {
+            if(current.label.charAt(0) == c) break;
+            current = current.next;
+        }
+        return current;
+    }
+
+    // str already ends with current's label
+    private void getWords(Node current, ArrayList<String> predictions, StringBuilder str) {
+        if(predictions.size() >= numOfSuggestions) return;
+        if(current.isLeaf()) {
+            predictions.add(str.substring(0, str.length()-1));
+            return;
+        }
+
+        int length = str.length();
+        for(Node child = current.child; child != null; child = child.next) {
+            str.append(child.label);
+            // Add all words underneath as predictions:
+            getWords(child, predictions, str);
+            str.setLength(length);
+        }
+    }
+
+    // DELETE
+
+    public void deleteCurrentWordWithSuffix(String suffix) {
+        if(!searching) throw new UnsupportedOperationException("Search not started. Cannot delete");
+        delete(prefix + suffix);
+    }
+
+    /**
+     * Deletes a word without a search
+     */
+    public void delete(String word) {
+        word = word + TERMINATOR;
+        Node parent = null;
+        Node prev;
+        Node current;
+        int i = 0;
+        while(true) {
+            prev = null;
+            current = parent == null ? root : parent.child;
+            while(current != null && current.label.charAt(0) != word.charAt(i)) {
+                prev = current;
+                current = current.next;
+            }
+            if(current == null || !word.startsWith(current.label, i)) throw new UnsupportedOperationException("Word not in DLB");
+            i += current.label.length();
+            if(i == word.length()) break;
+            parent = current;
+        }
+
+        // current is the word's leaf
+        if(prev != null) prev.next = current.next;
+        else if(parent != null) parent.child = current.next;
+        else root = current.next;
+        nodeCount--;
+        if(cachedNode == current) {
+            cachedNode = null;
+            searching = false;
+        }
+
+        // A parent left with one child takes over its label
+        if(parent != null && parent.child.next == null) {
+            Node only = parent.child;
+            if(cachedNode == only) {
+                cachedNode = parent;
+                cachedOffset += parent.label.length();
+            }
+            parent.label = parent.label + only.label;
+            parent.child = only.child;
+            nodeCount--;
+        }
+    }
+
+    // ADD METHOD
+
+    public void add(String word) {
+        word = word + TERMINATOR;
+        Node parent = null;
+        int i = 0;
+        while(true) {
+            char c = word.charAt(i);
+            Node prev = null;
+            Node current = parent == null ? root : parent.child;
+            while(current != null && current.label.charAt(0) != c) {
+                prev = current;
+                current = current.next;
+            }
+
+            if(current == null) {
+                // No node starts with the character, the rest of the word is one leaf
+                Node leaf = newNode(word.substring(i));
+                if(prev != null) prev.next = leaf;
+                else if(parent != null) parent.child = leaf;
+                else root = leaf;
+                return;
+            }
+
+            String label = current.label;
+            int matched = 1;
+            while(matched < label.length() && i+matched < word.length() && label.charAt(matched) == word.charAt(i+matched)) matched++;
+            i += matched;
+            if(i == word.length()) return;      // already in the DLB
+            if(matched < label.length()) {
+                // The word leaves the label part way, split it there
+                split(current, matched);
+                current.child.next = newNode(word.substring(i));
+                return;
+            }
+            parent = current;
+        }
+    }
+
+    // Cuts node's label after length characters, the rest moves to a new only child
+    private void split(Node node, int length) {
+        Node rest = newNode(node.label.substring(length));
+        rest.child = node.child;
+        node.label = node.label.substring(0, length);
+        node.child = rest;
+        if(cachedNode == node && cachedOffset > length) {
+            cachedNode = rest;
+            cachedOffset -= length;
+        }
+    }
+
+    private Node newNode(String label) {
+        nodeCount++;
+        return new Node(label);
+    }
+
+    /**
+     * Number of nodes in the DLB
+     */
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    private void printHelper(StringBuilder str, Node current) {
+        str.append('[');
+        Node c = current;
+        while(c != null) {
+            str.append(c.label + ",");
+            c = c.next;
+        }
+        str.append("]\n");
+        c = current;
+        while(c != null) {
+            if(!c.isLeaf()) {
+                str.append(c.label + ":");
+                printHelper(str, c.child);
+            }
+            c = c.next;
+        }
+    }
+
+    public String toString() {
+        StringBuilder str = new StringBuilder();
+        printHelper(str, root);
+        return str.toString();
+    }
+
+    private class Node {
+        private String label;
+        private Node child;
+        private Node next;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private boolean isLeaf() {
+            return label.charAt(label.length()-1) == TERMINATOR;
+        }
+    }
+}
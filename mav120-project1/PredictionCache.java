@@ -0,0 +1,68 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of prediction lists, keyed by the prefix typed.
+ *
+ * The predictions for a prefix only change when a word under that prefix
+ * changes (added to the history, deleted from the dictionary), so
+ * invalidate(word) drops exactly the entries for the prefixes of that word.
+ */
+public class PredictionCache {
+    private final LinkedHashMap<String, String[]> cache;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+
+    public PredictionCache(final int capacity) {
+        // Access order, so the eldest entry is the least recently used one
+        cache = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return a copy of the cached predictions for prefix, or null
+     */
+    public String[] get(String prefix) {
+        String[] results = cache.get(prefix);
+        if(results == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return results.clone();
+    }
+
+    public void put(String prefix, String[] results) {
+        cache.put(prefix, results.clone());
+    }
+
+    /**
+     * Drops the predictions of every prefix of word, the only ones word can show up in
+     */
+    public void invalidate(String word) {
+        for(int i=1; i<=word.length(); i++) {
+            if(cache.remove(word.substring(0, i)) != null) invalidations++;
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public String toString() {
+        long total = hits + misses;
+        double hitRate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("%d hits, %d misses (%.1f%% hit rate), %d invalidated, %d cached",
+                hits, misses, hitRate, invalidations, cache.size());
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Works out the predictions for the next keystroke while the typist is still
+ * deciding what to type.
+ *
+ * After each search the session calls prefetch(prefix). A worker thread then
+ * asks the DLB for the characters most likely to come next (heaviest subtree
+ * first) and computes the predictions for each of those longer prefixes into
+ * this session's map, so the next keystroke usually finds its answer ready.
+ * Only the newest prefix is worked on: a keystroke that comes in while the
+ * worker is busy makes it drop the old prefix and start on the new one.
+ *
+ * The worker only reads the DLB, which searches allow without locking.
+ * invalidate(word) drops what a changed word may have made stale, and a
+ * result the worker was computing at the time is thrown away.
+ */
+public class SpeculativePrefetcher {
+
+    /**
+     * Computes the predictions for a prefix, called on the worker thread
+     */
+    public interface Predictor {
+        String[] predict(String prefix);
+    }
+
+    private final DLB dictionary;
+    private final Predictor predictor;
+    private final int width;
+
+    private final Object signal = new Object();
+    private String pending = null;                  // newest prefix not started on yet, guarded by signal
+    private int generation = 0;                     // bumped by invalidate, guarded by signal
+    private volatile ConcurrentHashMap<String, String[]> prefetched = new ConcurrentHashMap<>();
+    private volatile boolean running = false;
+    private Thread worker;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param width how many next characters to prefetch after each keystroke
+     */
+    public SpeculativePrefetcher(DLB dictionary, Predictor predictor, int width) {
+        this.dictionary = dictionary;
+        this.predictor = predictor;
+        this.width = width;
+    }
+
+    public void start() {
+        running = true;
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(running) work();
+                } catch(InterruptedException e) {
+                    // close() is on its way
+                }
+            }
+        }, "speculative-prefetch");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void work() throws InterruptedException {
+        String prefix;
+        ConcurrentHashMap<String, String[]> map;
+        synchronized(signal) {
+            while(running && pending == null) signal.wait();
+            if(!running) return;
+            prefix = pending;
+            pending = null;
+            map = prefetched;
+        }
+
+        for(char c : dictionary.likelyNextCharacters(prefix, width)) {
+            int startGeneration;
+            synchronized(signal) {
+                // The typist moved on, start over with the new prefix
+                if(pending != null || !running) return;
+                startGeneration = generation;
+            }
+            String next = prefix + c;
+            String[] results = predictor.predict(next);
+            synchronized(signal) {
+                if(map == prefetched && startGeneration == generation) map.put(next, results);
+            }
+        }
+    }
+
+    /**
+     * Starts prefetching the predictions for prefix plus one character,
+     * dropping what was prefetched for the previous prefix
+     */
+    public void prefetch(String prefix) {
+        synchronized(signal) {
+            pending = prefix;
+            prefetched = new ConcurrentHashMap<>();
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * @return a copy of the prefetched predictions for prefix, or null
+     */
+    public String[] get(String prefix) {
+        String[] results = prefetched.get(prefix);
+        if(results == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return results.clone();
+    }
+
+    /**
+     * Drops the predictions of every prefix of word, the only ones word can show up in
+     */
+    public void invalidate(String word) {
+        synchronized(signal) {
+            generation++;
+            for(int i=1; i<=word.length(); i++) prefetched.remove(word.substring(0, i));
+        }
+    }
+
+    /**
+     * Stops the worker thread
+     */
+    public void close() {
+        if(worker == null) return;
+        running = false;
+        synchronized(signal) {
+            signal.notifyAll();
+        }
+        try {
+            worker.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public String toString() {
+        long total = hits + misses;
+        double hitRate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("%d hits, %d misses (%.1f%% hit rate)", hits, misses, hitRate);
+    }
+}
@@ -0,0 +1,70 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the heap used by TrieST and ArtTrieST for the same words.
+ *
+ * Usage: java TrieMemoryReport [file]
+ * The file can be a user_history.txt ("word,freq" lines) or a plain
+ * word list such as dictionary.txt. Defaults to user_history.txt.
+ */
+public class TrieMemoryReport {
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i=0; i<3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static Map<String, Integer> readWords(String filename) throws FileNotFoundException {
+        Map<String, Integer> words = new LinkedHashMap<>();
+        Scanner scanner = new Scanner(new File(filename));
+        while(scanner.hasNextLine()) {
+            String line = scanner.nextLine();
+            if(line.startsWith(DecayedFrequency.HEADER)) continue;
+            int commaIndex = line.lastIndexOf(',');
+            int freq = 1;
+            if(commaIndex > 0) {
+                try {
+                    freq = Integer.parseInt(line.substring(commaIndex+1));
+                    line = line.substring(0, commaIndex);
+                } catch(NumberFormatException e) {
+                    freq = 1;
+                }
+            }
+            words.put(line, freq);
+        }
+        scanner.close();
+        return words;
+    }
+
+    public static void main(String[] args) {
+        String filename = args.length > 0 ? args[0] : "user_history.txt";
+        Map<String, Integer> words;
+        try {
+            words = readWords(filename);
+        } catch(FileNotFoundException e) {
+            System.out.println("Could not find " + filename);
+            return;
+        }
+
+        long before = usedMemory();
+        TrieST<Integer> trie = new TrieST<>();
+        for(Map.Entry<String, Integer> entry : words.entrySet()) trie.put(entry.getKey(), entry.getValue());
+        long trieBytes = usedMemory() - before;
+
+        before = usedMemory();
+        ArtTrieST<Integer> art = new ArtTrieST<>();
+        for(Map.Entry<String, Integer> entry : words.entrySet()) art.put(entry.getKey(), entry.getValue());
+        long artBytes = usedMemory() - before;
+
+        int[] counts = art.nodeCounts();
+        System.out.println("Words:      " + words.size() + " (from " + filename + ")");
+        System.out.printf("TrieST:     %,d bytes%n", trieBytes);
+        System.out.printf("ArtTrieST:  %,d bytes%n", artBytes);
+        System.out.printf("ART nodes:  %d x4, %d x16, %d x48, %d x256%n", counts[0], counts[1], counts[2], counts[3]);
+
+        // keep both alive until both were measured
+        if(trie.size() != art.size()) System.out.println("Sizes differ: " + trie.size() + " vs " + art.size());
+    }
+}
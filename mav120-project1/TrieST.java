@@ -10,19 +10,24 @@
  *
  ******************************************************************************/
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.*;
 
 
 public class TrieST<Value> {
     private static final int R = 256;        // extended ASCII
+    private static final int NONE = Integer.MIN_VALUE;  // no value at a node
 
 
     private Node root;      // root of trie
     private int n;          // number of keys in trie
+    private int nodes;      // number of nodes in trie
 
-    // R-way trie node
+    // R-way trie node, values are kept as unboxed ints
     private static class Node {
-        private Object val;
+        private int val = NONE;
+        private int max = NONE; // highest frequency in the subtrie rooted here
         private Node[] next = new Node[R];
     }
 
@@ -43,8 +48,22 @@ public class TrieST<Value> {
     public Integer get(String key) {
         if (key == null) throw new IllegalArgumentException("argument to get() is null");
         Node x = get(root, key, 0);
-        if (x == null) return null;
-        return (Integer) x.val;
+        if (x == null || x.val == NONE) return null;
+        return x.val;
+    }
+
+    /**
+     * Returns the value associated with the given key without boxing it.
+     * @param key the key
+     * @param defaultValue what to return if the key is not in the symbol table
+     * @return the value associated with the given key, or {@code defaultValue}
+     * @throws IllegalArgumentException if {@code key} is {@code null}
+     */
+    public int get(String key, int defaultValue) {
+        if (key == null) throw new IllegalArgumentException("argument to get() is null");
+        Node x = get(root, key, 0);
+        if (x == null || x.val == NONE) return defaultValue;
+        return x.val;
     }
 
     /**
@@ -70,28 +89,64 @@ public class TrieST<Value> {
      * Inserts the key-value pair into the symbol table, overwriting the old value
      * with the new value if the key is already in the symbol table.
      * If the value is {@code null}, this effectively deletes the key from the symbol table.
+     * Values are frequencies, kept unboxed, so only {@code Integer} values are accepted.
      * @param key the key
      * @param val the value
-     * @throws IllegalArgumentException if {@code key} is {@code null}
+     * @throws IllegalArgumentException if {@code key} is {@code null},
+     *     or if {@code val} is not an {@code Integer} or is {@code Integer.MIN_VALUE}
      */
     public void put(String key, Value val) {
         if (key == null) throw new IllegalArgumentException("first argument to put() is null");
         if (val == null) delete(key);
-        else root = put(root, key, val, 0);
+        else if (!(val instanceof Integer)) throw new IllegalArgumentException("value is not an Integer: " + val.getClass().getName());
+        else put(key, ((Integer) val).intValue());
     }
 
-    private Node put(Node x, String key, Value val, int d) {
-        if (x == null) x = new Node();
+    /**
+     * Inserts the key-value pair into the symbol table without boxing the value.
+     * @param key the key
+     * @param val the value, anything but {@code Integer.MIN_VALUE}
+     * @throws IllegalArgumentException if {@code key} is {@code null},
+     *     or if {@code val} is {@code Integer.MIN_VALUE}, which marks a node without a value
+     */
+    public void put(String key, int val) {
+        if (key == null) throw new IllegalArgumentException("first argument to put() is null");
+        if (val == NONE) throw new IllegalArgumentException("Integer.MIN_VALUE cannot be stored, use delete()");
+        root = put(root, key, val, 0);
+    }
+
+    private Node put(Node x, String key, int val, int d) {
+        if (x == null) {
+            x = new Node();
+            nodes++;
+        }
+        int old;    // the value or child maximum this put replaces
         if (d == key.length()) {
-            if (x.val == null) n++;
+            if (x.val == NONE) n++;
+            old = x.val;
             x.val = val;
-            return x;
         }
-        char c = key.charAt(d);
-        x.next[c] = put(x.next[c], key, val, d+1);
+        else {
+            char c = key.charAt(d);
+            old = x.next[c] == null ? NONE : x.next[c].max;
+            x.next[c] = put(x.next[c], key, val, d+1);
+        }
+
+        // Only a lowered value that was the maximum needs a rescan of the children
+        if (val >= x.max) x.max = val;
+        else if (old == x.max) updateMax(x);
         return x;
     }
 
+    // recomputes the subtrie maximum of x from its own value and its children
+    private void updateMax(Node x) {
+        int max = x.val;        // NONE if neither x nor its children have a value
+        for (int c = 0; c < R; c++)
+            if (x.next[c] != null && x.next[c].max > max)
+                max = x.next[c].max;
+        x.max = max;
+    }
+
     /**
      * Returns the number of key-value pairs in this symbol table.
      * @return the number of key-value pairs in this symbol table
@@ -100,6 +155,14 @@ public class TrieST<Value> {
         return n;
     }
 
+    /**
+     * Returns the number of nodes in the trie, each one holds an array of R links.
+     * @return the number of nodes in the trie
+     */
+    public int nodeCount() {
+        return nodes;
+    }
+
     /**
      * Is this symbol table empty?
      * @return {@code true} if this symbol table is empty and {@code false} otherwise
@@ -126,31 +189,6 @@ public class TrieST<Value> {
     }
 
 
-    /**
-     * Users a PriorityQueue to return
-     * most frequent words stored in hash table
-     *
-     */
-    private List<String> getMostFrequentWords(Map<String, Integer> map) {
-        PriorityQueue<Map.Entry<String, Integer>> q = new PriorityQueue<>(new Comparator<Map.Entry<String, Integer>>() {
-            @Override
-            public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
-                return o2.getValue() - o1.getValue();
-            }
-        });
-
-        List<String> results = new ArrayList<String>();
-        q.addAll(map.entrySet());
-
-        while(q.size() > 0) {
-            Map.Entry<String, Integer> entry = q.poll();
-            results.add(entry.getKey());
-        }
-
-        return results;
-    }
-
-
     /**
      * Generates a hashmap given a prefix
      * Keys are strings and values are word frequency
@@ -166,16 +204,143 @@ public class TrieST<Value> {
      * Returns all of the keys in the set that start with {@code prefix}.
      * @param prefix the prefix
      * @return all of the keys in the set that start with {@code prefix},
-     *     as an iterable
+     *     most frequent first
      */
     public List<String> keysWithPrefix(String prefix) {
-        Map<String, Integer> map = keyMapWithPrefix(prefix);
-        return getMostFrequentWords(map);
+        return keysWithPrefix(prefix, n);
+    }
+
+    /**
+     * Returns the {@code k} most frequent keys that start with {@code prefix}.
+     * Keeps a min-heap of size {@code k} while walking the trie, and skips
+     * any subtrie whose highest frequency cannot beat the heap minimum.
+     * Ties go to the key that comes first in character order.
+     * @param prefix the prefix
+     * @param k the maximum number of keys to return
+     * @return up to {@code k} keys that start with {@code prefix},
+     *     most frequent first
+     */
+    public List<String> keysWithPrefix(String prefix, int k) {
+        if (prefix == null) throw new IllegalArgumentException("argument to keysWithPrefix() is null");
+        if (k <= 0) return new ArrayList<String>(0);
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(k, 16));
+        Node x = get(root, prefix, 0);
+        collect(x, new StringBuilder(prefix), k, heap);
+
+        String[] keys = new String[heap.size()];
+        for (int i = keys.length - 1; i >= 0; i--)
+            keys[i] = heap.poll().key;
+        return Arrays.asList(keys);
+    }
+
+    /**
+     * Returns the keys that start with {@code prefix}, most frequent first
+     * (ties in character order), finding them only as they are asked for.
+     * Subtries are searched best first by their highest frequency, so a page
+     * of {@code k} keys costs about as much as {@code keysWithPrefix(prefix, k)}
+     * and the next page carries on from where it stopped.
+     * @param prefix the prefix
+     * @return the keys that start with {@code prefix}, lazily
+     * @throws IllegalArgumentException if {@code prefix} is {@code null}
+     */
+    public Completions completions(String prefix) {
+        if (prefix == null) throw new IllegalArgumentException("argument to completions() is null");
+        return new TrieCompletions(get(root, prefix, 0), prefix);
+    }
+
+    private class TrieCompletions extends Completions {
+        private final PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        private String next;
+
+        private TrieCompletions(Node x, String prefix) {
+            if (x != null) queue.add(new Candidate(x, prefix, x.max));
+        }
+
+        public boolean hasNext() {
+            if (next == null) next = advance();
+            return next != null;
+        }
+
+        public String next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            String key = next;
+            next = null;
+            return key;
+        }
+
+        private String advance() {
+            while (!queue.isEmpty()) {
+                Candidate candidate = queue.poll();
+                Node x = candidate.x;
+                if (x == null) return candidate.key;
+                if (x.val != NONE) queue.add(new Candidate(null, candidate.key, x.val));
+                for (char c = 0; c < R; c++)
+                    if (x.next[c] != null)
+                        queue.add(new Candidate(x.next[c], candidate.key + c, x.next[c].max));
+            }
+            return null;
+        }
+    }
+
+    // a key (x is null) or a subtrie to search (freq is its max), the most
+    // frequent comes out first and ties in key order, so a subtrie comes out
+    // before any key of the same frequency that sorts after its prefix
+    private static class Candidate implements Comparable<Candidate> {
+        private final Node x;
+        private final String key;
+        private final int freq;
+
+        private Candidate(Node x, String key, int freq) {
+            this.x = x;
+            this.key = key;
+            this.freq = freq;
+        }
+
+        public int compareTo(Candidate that) {
+            if (this.freq != that.freq) return Integer.compare(that.freq, this.freq);
+            return this.key.compareTo(that.key);
+        }
+    }
+
+    // heap entry for keysWithPrefix, the least frequent key is on top
+    private static class Entry implements Comparable<Entry> {
+        private final String key;
+        private final int freq;
+
+        private Entry(String key, int freq) {
+            this.key = key;
+            this.freq = freq;
+        }
+
+        // on equal frequency the key that sorts later is dropped first
+        public int compareTo(Entry that) {
+            if (this.freq != that.freq) return Integer.compare(this.freq, that.freq);
+            return that.key.compareTo(this.key);
+        }
+    }
+
+    private void collect(Node x, StringBuilder prefix, int k, PriorityQueue<Entry> heap) {
+        if (x == null) return;
+        if (heap.size() >= k && x.max <= heap.peek().freq) return;
+        if (x.val != NONE) {
+            int freq = x.val;
+            if (heap.size() < k) heap.add(new Entry(prefix.toString(), freq));
+            else if (freq > heap.peek().freq) {
+                heap.poll();
+                heap.add(new Entry(prefix.toString(), freq));
+            }
+        }
+        for (char c = 0; c < R; c++) {
+            if (x.next[c] == null) continue;
+            prefix.append(c);
+            collect(x.next[c], prefix, k, heap);
+            prefix.deleteCharAt(prefix.length() - 1);
+        }
     }
 
     private void collect(Node x, StringBuilder prefix, Map<String, Integer> map) {
         if (x == null) return;
-        if (x.val != null) map.put(prefix.toString(), (Integer)x.val);
+        if (x.val != NONE) map.put(prefix.toString(), x.val);
         for (char c = 0; c < R; c++) {
             prefix.append(c);
             collect(x.next[c], prefix, map);
@@ -199,7 +364,7 @@ public class TrieST<Value> {
     private void collect(Node x, StringBuilder prefix, String pattern, Queue<String> results) {
         if (x == null) return;
         int d = prefix.length();
-        if (d == pattern.length() && x.val != null)
+        if (d == pattern.length() && x.val != NONE)
             results.add(prefix.toString());
         if (d == pattern.length())
             return;
@@ -239,7 +404,7 @@ public class TrieST<Value> {
     // found a prefix match of given length (-1 if no such match)
     private int longestPrefixOf(Node x, String query, int d, int length) {
         if (x == null) return length;
-        if (x.val != null) length = d;
+        if (x.val != NONE) length = d;
         if (d == query.length()) return length;
         char c = query.charAt(d);
         return longestPrefixOf(x.next[c], query, d+1, length);
@@ -258,31 +423,49 @@ public class TrieST<Value> {
     private Node delete(Node x, String key, int d) {
         if (x == null) return null;
         if (d == key.length()) {
-            if (x.val != null) n--;
-            x.val = null;
+            if (x.val != NONE) n--;
+            x.val = NONE;
         }
         else {
             char c = key.charAt(d);
             x.next[c] = delete(x.next[c], key, d+1);
         }
 
+        updateMax(x);
+
         // remove subtrie rooted at x if it is completely empty
-        if (x.val != null) return x;
+        if (x.val != NONE) return x;
         for (int c = 0; c < R; c++)
             if (x.next[c] != null)
                 return x;
+        nodes--;
         return null;
     }
 
-    public String toString() {
-        StringBuilder words = new StringBuilder();
-        Map<String, Integer> map = toHashMap();
-        for(Map.Entry<String, Integer> entry : map.entrySet()) {
-            words.append(entry.getKey());
-            words.append(",");
-            words.append(entry.getValue());
-            words.append("\n");
+    /**
+     * Writes every key as a "key,value" line, straight from the trie
+     */
+    public void write(PrintWriter out) {
+        write(root, new StringBuilder(), out);
+    }
+
+    private void write(Node x, StringBuilder prefix, PrintWriter out) {
+        if (x == null) return;
+        if (x.val != NONE) {
+            out.append(prefix).append(',').print(x.val);
+            out.print('\n');
+        }
+        for (char c = 0; c < R; c++) {
+            if (x.next[c] == null) continue;
+            prefix.append(c);
+            write(x.next[c], prefix, out);
+            prefix.deleteCharAt(prefix.length() - 1);
         }
+    }
+
+    public String toString() {
+        StringWriter words = new StringWriter();
+        write(new PrintWriter(words));
         return words.toString();
     }
 }
\ No newline at end of file
@@ -0,0 +1,271 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of the ranked dictionary DLB ac_test searches: dictionary
+ * words and history words, weighted by their history scores.
+ *
+ * The snapshot is written once and then memory mapped, and every query reads
+ * the mapped bytes directly, so opening it does not depend on the
+ * dictionary size. Every node's best list is in it, so a ranked search reads
+ * one list, as it does in the DLB.
+ *
+ * It remembers the length and modification time of the files it was built
+ * from, and isFresh() tells whether they changed since.
+ *
+ * Layout (big endian):
+ *   int MAGIC, int VERSION
+ *   int source count, per source: long length (-1 if missing), long modification time
+ *   int ranked size
+ *   the DLB: nodes (11 byte records), best lists and words, see DLB.writeSnapshot
+ *
+ * Build one with: java TrieSnapshot [dictionary.txt] [user_history.txt] [user_history.log] [autocomplete.snap]
+ */
+public class TrieSnapshot {
+    public static final String DEFAULT_FILE = "autocomplete.snap";
+
+    private static final int MAGIC = 0x4143534E;    // "ACSN"
+    private static final int VERSION = 3;
+    private static final int NODE_RECORD = 11;
+    private static final char TERMINATOR = '$';
+    private static final int NONE = -1;
+
+    private final MappedByteBuffer buffer;
+    private final long[] sources;       // length, modification time pairs
+    private final int rankedSize;
+    private final int nodeStart;
+    private final int nodeCount;
+    private final int bestStart;
+    private final int wordCount;
+    private final int weightStart;
+    private final int charOffsetStart;
+    private final int charStart;
+
+    private TrieSnapshot(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) throw new IOException("Not an autocomplete snapshot");
+        int at = 8;
+        sources = new long[2 * buffer.getInt(at)];
+        at += 4;
+        for(int i=0; i<sources.length; i++, at += 8) sources[i] = buffer.getLong(at);
+        rankedSize = buffer.getInt(at);
+        nodeCount = buffer.getInt(at + 4);
+        nodeStart = at + 8;
+        int bestSize = buffer.getInt(nodeStart + nodeCount * NODE_RECORD);
+        bestStart = nodeStart + nodeCount * NODE_RECORD + 4;
+        wordCount = buffer.getInt(bestStart + bestSize);
+        weightStart = bestStart + bestSize + 4;
+        charOffsetStart = weightStart + 8 * wordCount;
+        charStart = charOffsetStart + 4 * (wordCount + 1);
+    }
+
+    // WRITING
+
+    /**
+     * Writes the DLB to file, remembering the files it was built from.
+     * The new snapshot replaces an old one with an atomic rename.
+     */
+    public static void write(File file, DLB dictionary, File... sourceFiles) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sourceFiles.length);
+            for(long value : stamps(sourceFiles)) out.writeLong(value);
+            out.writeInt(dictionary.getRankedSize());
+            dictionary.writeSnapshot(out);
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static TrieSnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the channel is closed
+            FileChannel channel = raf.getChannel();
+            return new TrieSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static long[] stamps(File... files) {
+        long[] stamps = new long[2 * files.length];
+        for(int i=0; i<files.length; i++) {
+            stamps[2*i] = files[i].exists() ? files[i].length() : -1;
+            stamps[2*i + 1] = files[i].lastModified();
+        }
+        return stamps;
+    }
+
+    /**
+     * @return true if the files are the ones the snapshot was built from, unchanged
+     */
+    public boolean isFresh(File... sourceFiles) {
+        return Arrays.equals(sources, stamps(sourceFiles));
+    }
+
+    public int getRankedSize() {
+        return rankedSize;
+    }
+
+    // RECORDS
+
+    private char val(int node) {
+        return buffer.getChar(nodeStart + node * NODE_RECORD);
+    }
+
+    private int child(int node) {
+        return buffer.getInt(nodeStart + node * NODE_RECORD + 2);
+    }
+
+    private int next(int node) {
+        boolean last = buffer.get(nodeStart + node * NODE_RECORD + 6) != 0;
+        return last ? NONE : node + 1;
+    }
+
+    private int rank(int node) {
+        return buffer.getInt(nodeStart + node * NODE_RECORD + 7);
+    }
+
+    private int find(int list, char c) {
+        while(list != NONE && val(list) != c) list = next(list);
+        return list;
+    }
+
+    private String word(int index) {
+        int start = buffer.getInt(charOffsetStart + 4 * index);
+        int end = buffer.getInt(charOffsetStart + 4 * (index + 1));
+        char[] chars = new char[end - start];
+        for(int i=0; i<chars.length; i++) chars[i] = buffer.getChar(charStart + 2 * (start + i));
+        return new String(chars);
+    }
+
+    /**
+     * @return the word's weight, or defaultValue if it is not in the snapshot
+     */
+    public long getWeight(String word, long defaultValue) {
+        int list = nodeCount > 0 ? 0 : NONE;
+        int node = NONE;
+        for(int i=0; i<word.length() && list != NONE; i++) {
+            node = find(list, word.charAt(i));
+            list = node == NONE ? NONE : child(node);
+        }
+        int term = find(list, TERMINATOR);
+        if(term == NONE || rank(term) == NONE) return defaultValue;
+        return buffer.getLong(weightStart + 8 * rank(term));
+    }
+
+    // SEARCH, same behaviour as DLB.SearchCursor
+
+    public SearchCursor newCursor() {
+        return new SearchCursor();
+    }
+
+    public class SearchCursor {
+        private final StringBuilder prefix = new StringBuilder();
+        private int[] nodes = new int[16];      // node of each typed character, NONE once the prefix left the DLB
+        private int length = 0;
+
+        private SearchCursor() {
+        }
+
+        public ArrayList<String> search(char c, int numOfSuggestions) {
+            prefix.append(c);
+            int current = NONE;
+            if(length == 0) current = find(nodeCount > 0 ? 0 : NONE, c);
+            else if(nodes[length-1] != NONE) current = find(child(nodes[length-1]), c);
+            if(length == nodes.length) nodes = Arrays.copyOf(nodes, 2 * length);
+            nodes[length++] = current;
+
+            if(current == NONE || numOfSuggestions <= 0) return null;
+            return suggestions(current, numOfSuggestions);
+        }
+
+        public ArrayList<String> backspace(int numOfSuggestions) {
+            if(length == 0) return null;
+            length--;
+            prefix.deleteCharAt(prefix.length()-1);
+            if(length == 0) return null;
+            int current = nodes[length-1];
+            if(current == NONE || numOfSuggestions <= 0) return null;
+            return suggestions(current, numOfSuggestions);
+        }
+
+        public String getPrefix() {
+            return prefix.toString();
+        }
+
+        private ArrayList<String> suggestions(int node, int numOfSuggestions) {
+            ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+            if(rankedSize > 0) {
+                int best = rank(node);
+                if(best == NONE) return predictions;
+                int size = buffer.get(bestStart + best) & 0xFF;
+                for(int i=0; i<size && predictions.size() < numOfSuggestions; i++) {
+                    predictions.add(word(buffer.getInt(bestStart + best + 1 + 4*i)));
+                }
+            } else {
+                getWords(child(node), predictions, new StringBuilder(prefix), numOfSuggestions);
+            }
+            return predictions;
+        }
+    }
+
+    private void getWords(int current, ArrayList<String> predictions, StringBuilder str, int numOfSuggestions) {
+        if(current == NONE) return;
+        if(predictions.size() >= numOfSuggestions) return;
+        if(val(current) == TERMINATOR) {
+            predictions.add(str.toString());
+        }
+
+        while(current != NONE) {
+            str.append(val(current));
+            getWords(child(current), predictions, str, numOfSuggestions);
+            str.deleteCharAt(str.length()-1);
+            current = next(current);
+        }
+    }
+
+    public static void main(String[] args) {
+        File dictionaryFile = new File(args.length > 0 ? args[0] : "dictionary.txt");
+        File historyFile = new File(args.length > 1 ? args[1] : "user_history.txt");
+        File journalFile = new File(args.length > 2 ? args[2] : "user_history.log");
+        File snapshotFile = new File(args.length > 3 ? args[3] : DEFAULT_FILE);
+
+        // Built the same way ac_test builds its dictionary
+        DLB dictionary = new DLB(ac_test.NUM_SUGGESTIONS);
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(dictionaryFile));
+            dictionary.bulkLoad(in.lines().iterator());
+            in.close();
+        } catch(IOException e) {
+            System.out.println("Could not read " + dictionaryFile);
+            return;
+        }
+        try {
+            ConcurrentHistoryTrie history = new ConcurrentHistoryTrie();
+            HistoryJournal journal = new HistoryJournal(history, new DecayedFrequency(ac_test.HISTORY_HALF_LIFE), historyFile, journalFile);
+            if(!journal.load()) System.out.println("No user history found, writing the dictionary only");
+            journal.close();
+            for(String word : history.keys()) dictionary.add(word, history.get(word, 0));
+        } catch(IOException e) {
+            System.out.println("Error reading the user history: " + e.getMessage());
+            return;
+        }
+
+        try {
+            write(snapshotFile, dictionary, dictionaryFile, historyFile, journalFile);
+            System.out.println("Wrote " + snapshotFile);
+        } catch(IOException e) {
+            System.out.println("Error writing " + snapshotFile + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,348 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Word histories of many users over one shared dictionary DLB.
+ *
+ * Every user has their own ConcurrentHistoryTrie (decayed scores, see DecayedFrequency),
+ * but only the recently active ones are kept in memory. When the estimated
+ * size of the resident tries goes over the memory budget, the least recently
+ * used users are written to their own file in the history directory and
+ * dropped. A user's trie is read back the next time they type.
+ *
+ * A history file is binary: MAGIC, VERSION, the half-life of the scores and
+ * their units (long), the number of words, then the words in order, each one
+ * as the length of the prefix it shares with the word before (short), the
+ * rest of the word (UTF) and its score (long).
+ *
+ * Thread-safe: each user's trie is locked on its own, the store only while
+ * looking users up and choosing who to evict. Locks are always taken store
+ * first, then user. Evicted tries are written to disk outside the store lock.
+ *
+ * Usage: java UserHistoryStore <users> <words per user> [memory budget in KB]
+ * runs a synthetic load and checks the predictions against a store that never evicts.
+ */
+public class UserHistoryStore {
+    private static final int MAGIC = 0x41435548;     // "ACUH"
+    private static final int VERSION = 2;       // 1 had int scores in DecayedFrequency.OLD_UNITS, and no units
+    private static final String EXTENSION = ".hist";
+    static final long TRIE_NODE_BYTES = ConcurrentHistoryTrie.NODE_BYTES;
+
+    private final DLB dictionary;
+    private final DecayedFrequency decay;
+    private final File directory;
+    private final long memoryBudget;
+
+    // Every user seen, least recently used first
+    private final LinkedHashMap<String, UserHistory> users = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes = 0;
+    private int residentUsers = 0;
+    private final AtomicLong loads = new AtomicLong();     // counted with a user locked, not the store
+    private long evictions = 0;
+
+    private static class UserHistory {
+        private final String user;
+        private ConcurrentHistoryTrie trie = null;     // null while evicted
+        private boolean dirty = false;          // changed since it was last written
+        private long bytes = 0;                 // estimate counted in residentBytes, changed with both locks held
+
+        private UserHistory(String user) {
+            this.user = user;
+        }
+    }
+
+    /**
+     * @param memoryBudget bytes of history tries to keep in memory
+     */
+    public UserHistoryStore(DLB dictionary, DecayedFrequency decay, File directory, long memoryBudget) {
+        if(!directory.isDirectory() && !directory.mkdirs()) throw new IllegalArgumentException("Cannot create " + directory);
+        this.dictionary = dictionary;
+        this.decay = decay;
+        this.directory = directory;
+        this.memoryBudget = memoryBudget;
+    }
+
+    // USERS
+
+    /**
+     * Counts one use of word by user now
+     * @return the word's new score
+     */
+    public long increment(String user, String word) throws IOException {
+        return increment(user, word, System.currentTimeMillis());
+    }
+
+    long increment(String user, String word, long now) throws IOException {
+        UserHistory history = lookUp(user);
+        long score;
+        synchronized(history) {
+            score = resident(history).increment(word, decay, now);
+            history.dirty = true;
+        }
+        resize(history);
+        return score;
+    }
+
+    /**
+     * The user's history words for prefix, best score first, then dictionary
+     * words for prefix that are not in the history
+     */
+    public ArrayList<String> predict(String user, String prefix, int numOfSuggestions) throws IOException {
+        ArrayList<String> predictions = new ArrayList<>(numOfSuggestions);
+        if(prefix.isEmpty()) return predictions;
+        UserHistory history = lookUp(user);
+        synchronized(history) {
+            predictions.addAll(resident(history).keysWithPrefix(prefix, numOfSuggestions));
+        }
+        resize(history);
+
+        if(predictions.size() < numOfSuggestions) {
+            // Ask for enough to skip the ones already in the history
+            DLB.SearchCursor cursor = dictionary.newCursor();
+            ArrayList<String> words = null;
+            for(int i=0; i<prefix.length(); i++) {
+                words = cursor.search(prefix.charAt(i), i == prefix.length()-1 ? 2*numOfSuggestions : 0);
+            }
+            if(words != null) {
+                for(String word : words) {
+                    if(predictions.size() >= numOfSuggestions) break;
+                    if(!predictions.contains(word)) predictions.add(word);
+                }
+            }
+        }
+        return predictions;
+    }
+
+    private synchronized UserHistory lookUp(String user) {
+        UserHistory history = users.get(user);
+        if(history == null) {
+            history = new UserHistory(user);
+            users.put(user, history);
+        }
+        return history;
+    }
+
+    // The user's trie, read from disk if it was evicted. Call with history locked
+    private ConcurrentHistoryTrie resident(UserHistory history) throws IOException {
+        if(history.trie == null) {
+            history.trie = read(fileFor(history.user));
+            history.dirty = false;
+            loads.incrementAndGet();
+        }
+        return history.trie;
+    }
+
+    // Recounts the user's size and evicts other users if the budget is exceeded
+    private void resize(UserHistory history) throws IOException {
+        ArrayList<UserHistory> victims;
+        synchronized(this) {
+            synchronized(history) {
+                long bytes = history.trie == null ? 0 : history.trie.nodeCount() * TRIE_NODE_BYTES;
+                if(history.bytes == 0 && bytes > 0) residentUsers++;
+                if(history.bytes > 0 && bytes == 0) residentUsers--;
+                residentBytes += bytes - history.bytes;
+                history.bytes = bytes;
+            }
+            victims = chooseVictims(history);
+        }
+        for(UserHistory victim : victims) evict(victim);
+    }
+
+    // Takes least recently used users off the count until the resident tries fit
+    // the budget. The user being served stays, even if it does not fit on its own
+    private synchronized ArrayList<UserHistory> chooseVictims(UserHistory current) {
+        ArrayList<UserHistory> victims = new ArrayList<>();
+        Iterator<UserHistory> iterator = users.values().iterator();
+        while(residentBytes > memoryBudget && iterator.hasNext()) {
+            UserHistory history = iterator.next();
+            if(history == current) continue;
+            synchronized(history) {
+                if(history.bytes == 0) continue;
+                residentBytes -= history.bytes;
+                history.bytes = 0;
+            }
+            residentUsers--;
+            evictions++;
+            victims.add(history);
+        }
+        return victims;
+    }
+
+    // Writes a victim out and drops its trie, unless it was used and counted again since
+    private void evict(UserHistory history) throws IOException {
+        synchronized(history) {
+            if(history.bytes > 0 || history.trie == null) return;
+            if(history.dirty) write(history.trie, fileFor(history.user));
+            history.trie = null;
+            history.dirty = false;
+        }
+    }
+
+    /**
+     * Writes every changed user to disk, they stay in memory
+     */
+    public void flush() throws IOException {
+        ArrayList<UserHistory> all;
+        synchronized(this) {
+            all = new ArrayList<>(users.values());
+        }
+        for(UserHistory history : all) {
+            synchronized(history) {
+                if(history.trie != null && history.dirty) {
+                    write(history.trie, fileFor(history.user));
+                    history.dirty = false;
+                }
+            }
+        }
+    }
+
+    // FILES
+
+    // Users can be any string, anything but letters, digits, '-' and '_' is escaped
+    File fileFor(String user) {
+        StringBuilder name = new StringBuilder();
+        for(char c : user.toCharArray()) {
+            if((c < 128 && Character.isLetterOrDigit(c)) || c == '-' || c == '_') name.append(c);
+            else name.append(String.format("%%%04x", (int) c));
+        }
+        return new File(directory, name + EXTENSION);
+    }
+
+    private void write(ConcurrentHistoryTrie trie, File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(decay.getHalfLife());
+            out.writeLong(DecayedFrequency.UNITS);
+            // keys() is most frequent first, front coding needs character order
+            List<String> keys = trie.keys();
+            String[] words = keys.toArray(new String[keys.size()]);
+            Arrays.sort(words);
+            out.writeInt(words.length);
+            String previous = "";
+            for(String word : words) {
+                int common = 0;
+                int max = Math.min(Math.min(word.length(), previous.length()), Short.MAX_VALUE);
+                while(common < max && word.charAt(common) == previous.charAt(common)) common++;
+                out.writeShort(common);
+                out.writeUTF(word.substring(common));
+                out.writeLong(trie.get(word, DecayedFrequency.NEVER));
+                previous = word;
+            }
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private ConcurrentHistoryTrie read(File file) throws IOException {
+        ConcurrentHistoryTrie trie = new ConcurrentHistoryTrie();
+        if(!file.exists()) return trie;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if(in.readInt() != MAGIC) throw new IOException(file + " is not a history file");
+            int version = in.readInt();
+            if(version != 1 && version != VERSION) throw new IOException(file + " is not a history file");
+            long halfLife = in.readLong();
+            long units = version == 1 ? DecayedFrequency.OLD_UNITS : in.readLong();
+            int count = in.readInt();
+            long now = System.currentTimeMillis();
+            String previous = "";
+            for(int i=0; i<count; i++) {
+                int common = in.readShort();
+                String word = previous.substring(0, common) + in.readUTF();
+                long score = version == 1 ? in.readInt() : in.readLong();
+                trie.raise(word, decay.convert(score, halfLife, units, now));
+                previous = word;
+            }
+        } finally {
+            in.close();
+        }
+        return trie;
+    }
+
+    // STATS
+
+    public synchronized long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public synchronized int getResidentUsers() {
+        return residentUsers;
+    }
+
+    public synchronized String toString() {
+        return String.format("%d users, %d in memory (%,d bytes of %,d), %d evicted, %d loaded",
+                users.size(), residentUsers, residentBytes, memoryBudget, evictions, loads.get());
+    }
+
+    public static void main(String[] args) {
+        if(args.length < 2) {
+            System.out.println("Usage: java UserHistoryStore <users> <words per user> [memory budget in KB]");
+            return;
+        }
+        int userCount = Integer.parseInt(args[0]);
+        int wordsPerUser = Integer.parseInt(args[1]);
+        long budget = (args.length > 2 ? Long.parseLong(args[2]) : 16 * 1024) * 1024;
+
+        DLB dictionary = new DLB();
+        List<String> words;
+        try {
+            BufferedReader in = new BufferedReader(new FileReader("dictionary.txt"));
+            dictionary.bulkLoad(in.lines().iterator());
+            in.close();
+            words = Files.readAllLines(new File("dictionary.txt").toPath());
+        } catch(IOException e) {
+            System.out.println("There was an error reading dictionary.txt");
+            return;
+        }
+
+        DecayedFrequency decay = new DecayedFrequency();
+        File directory = new File("user_histories");
+        UserHistoryStore store = new UserHistoryStore(dictionary, decay, directory, budget);
+        // Same files, but it never evicts, so it never writes them. It sees each
+        // user before the store does, so both start from the same file
+        UserHistoryStore reference = new UserHistoryStore(dictionary, decay, directory, Long.MAX_VALUE);
+        Random random = new Random(1501);
+        try {
+            long referenceTime = 0;
+            long startTime = System.nanoTime();
+            for(int i=0; i<wordsPerUser; i++) {
+                for(int u=0; u<userCount; u++) {
+                    String word = words.get(random.nextInt(words.size()));
+                    if(word.isEmpty()) continue;
+                    String user = "user" + u;
+                    long now = System.currentTimeMillis();
+                    long referenceStart = System.nanoTime();
+                    reference.predict(user, word.substring(0, 1), 5);
+                    reference.increment(user, word, now);
+                    referenceTime += System.nanoTime() - referenceStart;
+                    store.predict(user, word.substring(0, 1), 5);
+                    store.increment(user, word, now);
+                }
+            }
+            store.flush();
+            long elapsed = System.nanoTime() - startTime - referenceTime;
+            System.out.printf("%d words in %.3f s%n", userCount * wordsPerUser, elapsed / ac_test.NANOSECS_PER_SEC);
+            System.out.println(store);
+
+            int mismatches = 0;
+            for(int u=0; u<userCount; u++) {
+                for(char c='a'; c<='z'; c++) {
+                    String user = "user" + u;
+                    String prefix = String.valueOf(c);
+                    if(!store.predict(user, prefix, 5).equals(reference.predict(user, prefix, 5))) mismatches++;
+                }
+            }
+            if(mismatches == 0) System.out.println("Predictions match a store that never evicts");
+            else System.out.println(mismatches + " predictions differ from a store that never evicts");
+        } catch(IOException e) {
+            System.out.println("Error in the history store: " + e.getMessage());
+        }
+    }
+}
@@ -4,54 +4,162 @@ import java.util.*;
 public class ac_test {
     public static final double NANOSECS_PER_SEC = 1000000000.0;
     public static StringBuilder currentWord = new StringBuilder();
-    public static DLB dictionary = new DLB();
-    public static TrieST<Integer> history = new TrieST<Integer>();
-    public static Scanner reader;
     public static final int NUM_SUGGESTIONS = 5;
+    // Ranked by history frequency, so one search returns history and dictionary words in order
+    public static DLB dictionary = new DLB(NUM_SUGGESTIONS);
+    public static DLB.SearchCursor dictionarySearch;
+    // Frequencies halve every 30 days, so recently used words win over ones used a lot long ago
+    public static final long HISTORY_HALF_LIFE = DecayedFrequency.DEFAULT_HALF_LIFE;
+    public static final File DICTIONARY_FILE = new File("dictionary.txt");
+    public static final File HISTORY_FILE = new File("user_history.txt");
+    public static final File HISTORY_LOG = new File("user_history.log");
+    public static ConcurrentHistoryTrie history = new ConcurrentHistoryTrie();
+    public static final DecayedFrequency historyDecay = new DecayedFrequency(HISTORY_HALF_LIFE);
+    public static HistoryJournal historyJournal = new HistoryJournal(history, historyDecay, HISTORY_FILE, HISTORY_LOG);
+    // The DLB as it was built from these files, memory mapped. While it is up to date it
+    // answers searches right away, and the history and the DLB are loaded in the background
+    public static final File SNAPSHOT_FILE = new File(TrieSnapshot.DEFAULT_FILE);
+    public static final File[] SNAPSHOT_SOURCES = {DICTIONARY_FILE, HISTORY_FILE, HISTORY_LOG};
+    public static TrieSnapshot snapshot = null;
+    public static TrieSnapshot.SearchCursor snapshotSearch;    // the current word's cursor if it started before the DLB was built
+    private static Thread dictionaryLoader;
+    private static volatile boolean dictionaryLoaded = false;
+    public static final long COMPACTION_PERIOD = 60 * 1000;
+    public static Scanner reader;
+    public static final int MAX_TYPOS = 2;
+    public static final char BACKSPACE = '<';
+    public static boolean closeMatches = false;
+    public static final int PREDICTION_CACHE_SIZE = 1024;
+    public static PredictionCache predictionCache = new PredictionCache(PREDICTION_CACHE_SIZE);
+    // Latency of each search, and of each step of it. History and dictionary
+    // words are ranked in the same DLB, so one search covers both
+    public static LatencyHistogram searchLatency = new LatencyHistogram("search");
+    public static LatencyHistogram cacheLatency = new LatencyHistogram("cache");
+    public static LatencyHistogram dictionaryLatency = new LatencyHistogram("dictionary");
+    public static LatencyHistogram fuzzyLatency = new LatencyHistogram("close match");
+    public static LatencyHistogram prefetchLatency = new LatencyHistogram("prefetched");
+    public static final char SHOW_LATENCIES = '?';
+    public static final char SHOW_MORE = '+';
+    // The rest of the current prefix's completions, kept between pages of '+'
+    public static Completions moreCompletions = null;
+    // Opt-in with -speculative: predictions for the likely next characters are worked out between keystrokes
+    public static final int PREFETCH_WIDTH = 8;
+    public static volatile SpeculativePrefetcher prefetcher = null;     // started once the DLB is built
+    // Words likely to follow the last ones completed, offered before the first character
+    public static final int NGRAM_SUCCESSORS = 16;
+    public static NGramModel nextWords = new NGramModel(dictionary, NGRAM_SUCCESSORS);
+    public static final File NGRAM_FILE = new File("user_ngrams.txt");
+    public static LatencyHistogram nextWordLatency = new LatencyHistogram("next word");
 
     public static HashSet<String> words = new HashSet<>();
 
     private static void addDictionary() {
-        System.out.println("Loading dictionary ...");
         try {
-            File file = new File("dictionary.txt");
-            Scanner scanner = new Scanner(file);
-            Map<String, Integer> historyWordMap = history.toHashMap();
-            while(scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                if(!historyWordMap.containsKey(line))
-                    dictionary.add(line);
-            }
-            scanner.close();
+            BufferedReader in = new BufferedReader(new FileReader(DICTIONARY_FILE));
+            // dictionary.txt is sorted, so the DLB is built in a single pass
+            dictionary.bulkLoad(in.lines().iterator());
+            in.close();
 
         } catch(FileNotFoundException e){
             System.out.println("There was an error, the dictionary.txt file was not found");
+        } catch(IOException e) {
+            System.out.println("There was an error reading dictionary.txt");
         }
     }
 
-    private static void loadUserHistory() {
+    // History words become dictionary words weighted by their frequency
+    private static void addHistoryToDictionary() {
+        for(String word : history.keys()) {
+            dictionary.add(word, history.get(word, 0));
+        }
+    }
+
+    // After the dictionary, n-grams of words that are not in it are skipped
+    private static void loadNextWords() {
         try {
-            File file = new File("user_history.txt");
-            Scanner scanner = new Scanner(file);
-            System.out.println("Loading user history ...");
-
-            while(scanner.hasNextLine()) {
-                String line = scanner.nextLine();
-                int commaIndex = line.lastIndexOf(',');
-                String word = line.substring(0, commaIndex);
-                int freq = Integer.parseInt(line.substring(commaIndex+1));
-                history.put(word, freq);
+            nextWords.load(NGRAM_FILE);
+        } catch(IOException | NumberFormatException e) {
+            System.out.println("There was an error loading " + NGRAM_FILE + ", next word predictions start over");
+        }
+    }
+
+    // The history, then everything that needs the DLB, in the order it needs it
+    private static void loadDictionary(boolean speculative) {
+        loadUserHistory();
+        addDictionary();
+        addHistoryToDictionary();
+        loadNextWords();
+        dictionaryReady(speculative);
+    }
+
+    // Searches use the DLB from now on, KeystrokeReplay calls it for a DLB it built itself
+    public static void dictionaryReady(boolean speculative) {
+        if(speculative) startPrefetching();
+        dictionaryLoaded = true;
+    }
+
+    private static void startLoadingDictionary(final boolean speculative) {
+        dictionaryLoader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                loadDictionary(speculative);
             }
-            scanner.close();
+        }, "dictionary-loader");
+        dictionaryLoader.setDaemon(true);
+        dictionaryLoader.start();
+    }
 
-        } catch(FileNotFoundException e){
-            System.out.println("No user history found. Most frequent words will be saved to user_history.txt");
+    // Waits for the background load of the history and the DLB, for everything the snapshot cannot do
+    public static void awaitDictionary() {
+        if(dictionaryLoaded || dictionaryLoader == null) return;
+        try {
+            dictionaryLoader.join();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Opens the snapshot if it was built from the files as they are now
+    private static void openSnapshot() {
+        if(!SNAPSHOT_FILE.exists()) return;
+        try {
+            TrieSnapshot opened = TrieSnapshot.open(SNAPSHOT_FILE);
+            if(opened.getRankedSize() == NUM_SUGGESTIONS && opened.isFresh(SNAPSHOT_SOURCES)) snapshot = opened;
+        } catch(IOException e) {
+            System.out.println("There was an error opening " + SNAPSHOT_FILE + ", it will be rebuilt");
+        }
+    }
+
+    // After the history is saved, so the snapshot matches the files next time
+    public static void saveSnapshot() {
+        if(snapshot != null && snapshot.isFresh(SNAPSHOT_SOURCES)) return;
+        try {
+            TrieSnapshot.write(SNAPSHOT_FILE, dictionary, SNAPSHOT_SOURCES);
+        } catch(IOException e) {
+            System.out.println("Error in saving " + SNAPSHOT_FILE + " ... ");
+        }
+    }
+
+    private static void loadUserHistory() {
+        try {
+            if(!historyJournal.load()) {
+                System.out.println("No user history found. Most frequent words will be saved to user_history.txt");
+            }
+            historyJournal.startCompaction(COMPACTION_PERIOD);
+        } catch(IOException e){
+            System.out.println("There was an error loading the user history");
         }
     }
 
     public static char promptUser(String prompt) {
         System.out.print(prompt);
-        return reader.next().trim().charAt(0);
+        char c = reader.next().trim().charAt(0);
+        while(c == SHOW_LATENCIES) {
+            printLatencies();
+            System.out.print(prompt);
+            c = reader.next().trim().charAt(0);
+        }
+        return c;
     }
 
 
@@ -72,6 +180,9 @@ public class ac_test {
 
         if(results[0] == null) {
             System.out.print("Cannot find word \"" + currentWord + "\". Type '$' to add to dictionary.");
+        } else if(closeMatches) {
+            System.out.print("No word starts with \"" + currentWord + "\". Close matches, or type '$' to add to dictionary.\n");
+            printPredictionList(results);
         } else {
             printPredictionList(results);
         }
@@ -80,7 +191,11 @@ public class ac_test {
     }
 
     private static void printPredictionList(String[] results) {
-        System.out.print("Predictions:\n");
+        printPredictionList("Predictions:", results);
+    }
+
+    private static void printPredictionList(String title, String[] results) {
+        System.out.print(title + "\n");
         for(int i=0; i<results.length; i++) {
             String result = results[i];
             if(result == null) break;
@@ -89,104 +204,302 @@ public class ac_test {
     }
 
 
-    public static void addWordToHistory(String word) {
-        Integer freq = history.get(word);
-        if(freq == null) freq = 0;
-        history.put(word, freq+1);
-
+    // journal false keeps the new score in memory only
+    public static void addWordToHistory(String word, boolean journal) {
+        long score;
+        if(!journal) {
+            score = history.increment(word, historyDecay, System.currentTimeMillis());
+        } else {
+            try {
+                // Written to user_history.log right away, compacted into user_history.txt later
+                score = historyJournal.increment(word);
+            } catch (IOException e) {
+                System.out.println("Error in saving word history ... ");
+                score = history.get(word, 0);
+            }
+        }
+        // The new score moves the word up in the dictionary's rankings
+        dictionary.add(word, score);
     }
 
-    public static char decideAction(char c, String[] results) {
-        if("12345$".indexOf(c) > -1) {
-            String word;
-            if(c == '$' || results[0] == null) {
-                word = currentWord.toString();
-            } else {
-                word = results[Character.getNumericValue(c)-1];
-                String suffix = word.substring(currentWord.length());
-                if(history.get(word) == null) {
-                    // We want to delete a word out of dictionary if
-                    // its not in the the user history
-                    dictionary.deleteCurrentWordWithSuffix(suffix);
-                }
+    /**
+     * What key c does, after the predictions in results were shown. Before
+     * the first character of a word (currentWord is empty) results are the
+     * next word predictions, and 1-5 picks one. Otherwise 1-5 picks a
+     * prediction, '$' or an empty slot finishes the word as typed, BACKSPACE
+     * erases and anything else is typed. The interactive loop and
+     * KeystrokeReplay both go through here.
+     * @param journal false for replays: the history is kept in memory only
+     *     and nothing is printed
+     * @return the predictions to show next, next word predictions if the
+     *     word was completed or erased
+     */
+    public static String[] typeKey(char c, String[] results, boolean journal) {
+        int choice = Character.getNumericValue(c);
+        boolean chosen = "12345".indexOf(c) > -1 && results[choice-1] != null;
+        if(currentWord.length() == 0) {
+            if(chosen) {
+                completeWord(results[choice-1], journal);
+                return newWord();
             }
-            System.out.print("\n\nWORD COMPLETE: " + word + "\n\n\n");
-            addWordToHistory(word);
-            return startNewWordSearch("Enter first character of next word: ");
+            startWord(c);
+        } else if("12345$".indexOf(c) > -1) {
+            completeWord(chosen ? results[choice-1] : currentWord.toString(), journal);
+            return newWord();
+        } else if(c == BACKSPACE) {
+            if(currentWord.length() <= 1) return newWord();
+            currentWord.deleteCharAt(currentWord.length()-1);
         } else {
             currentWord.append(c);
         }
-        return c;
+        results = getPredictions(c);
+        if(prefetcher != null) prefetcher.prefetch(currentWord.toString());
+        return results;
+    }
+
+    public static void completeWord(String word, boolean journal) {
+        awaitDictionary();
+        if(journal) System.out.print("\n\nWORD COMPLETE: " + word + "\n\n\n");
+        addWordToHistory(word, journal);
+        observeWord(word);
+    }
+
+    // After word's new score is in the dictionary: counts it as the last word
+    // completed and drops the predictions it changes
+    public static void observeWord(String word) {
+        nextWords.observe(word);
+        predictionCache.invalidate(word);
+        if(prefetcher != null) prefetcher.invalidate(word);
     }
 
-    public static char startNewWordSearch(String prompt) {
+    // Clears the current word. Zero keystrokes: returns the words that followed the last ones before
+    public static String[] newWord() {
         currentWord = new StringBuilder();
-        char c = promptUser(prompt);
-        dictionary.startNewSearch();
+        if(prefetcher != null) prefetcher.prefetch("");
+
+        String[] predictions = new String[NUM_SUGGESTIONS];
+        if(dictionaryLoaded) {
+            long startTime = System.nanoTime();
+            predictions = nextWords.predict(NUM_SUGGESTIONS);
+            nextWordLatency.record(System.nanoTime() - startTime);
+        }
+        return predictions;
+    }
+
+    // Starts a word with c, getPredictions(c) then searches for it
+    public static void startWord(char c) {
+        if(dictionaryLoaded) {
+            dictionarySearch = dictionary.newCursor();
+            snapshotSearch = null;
+        } else {
+            snapshotSearch = snapshot.newCursor();
+        }
         currentWord.append(c);
-        return c;
     }
 
     public static String[] getPredictions(char c) {
-        String[] results = new String[NUM_SUGGESTIONS];
-        int i =0;
+        long startTime = System.nanoTime();
+        moreCompletions = null;
+        String prefix = currentWord.toString();
+        String[] results = predictionCache.get(prefix);
+        if(results != null) {
+            // Keep the cursor in step without collecting suggestions
+            moveCursor(c, 0);
+            closeMatches = false;
+            cacheLatency.record(System.nanoTime() - startTime);
+            return results;
+        }
+        long lookupTime = System.nanoTime();
+        cacheLatency.record(lookupTime - startTime);
+
+        if(prefetcher != null) {
+            results = prefetcher.get(prefix);
+            if(results != null) {
+                moveCursor(c, 0);
+                // Close matches never start with the prefix, see addCloseMatches
+                closeMatches = results[0] != null && !results[0].startsWith(prefix);
+                if(!closeMatches) predictionCache.put(prefix, results);
+                prefetchLatency.record(System.nanoTime() - lookupTime);
+                return results;
+            }
+            lookupTime = System.nanoTime();
+        }
+
+        results = new String[NUM_SUGGESTIONS];
+        ArrayList<String> resultsList = moveCursor(c, NUM_SUGGESTIONS);
+        if(resultsList != null) resultsList.toArray(results);
+        long searchTime = System.nanoTime();
+        dictionaryLatency.record(searchTime - lookupTime);
 
-        List<String> historyResults = history.keysWithPrefix(currentWord.toString());
-        int min = Math.min(NUM_SUGGESTIONS, historyResults.size());
-        while(i < min) {
-            results[i] = historyResults.get(i);
-            i++;
+        closeMatches = false;
+        if(results[0] == null && currentWord.length() > 1) {
+            closeMatches = addCloseMatches(prefix, results);
+            fuzzyLatency.record(System.nanoTime() - searchTime);
         }
 
-        ArrayList<String> dictionaryResultsList = dictionary.search(c, NUM_SUGGESTIONS-historyResults.size());
-        if(i < NUM_SUGGESTIONS) {
-            if(dictionaryResultsList != null) {
-                String[] dictionaryResults = dictionaryResultsList.toArray(new String[]{});
-                System.arraycopy(dictionaryResults,0,results,i,dictionaryResults.length);
-            }
+        // Close matches are not under the prefix, invalidate() could not keep them right
+        if(!closeMatches) predictionCache.put(prefix, results);
+        return results;
+    }
+
+    // Types c (or erases the last character) in the current word's cursor, in the
+    // snapshot if the word was started before the DLB was built
+    private static ArrayList<String> moveCursor(char c, int numOfSuggestions) {
+        if(snapshotSearch != null) {
+            if(c == BACKSPACE) return snapshotSearch.backspace(numOfSuggestions);
+            return snapshotSearch.search(c, numOfSuggestions);
+        }
+        // The cursor remembers what it found for the shorter prefix
+        if(c == BACKSPACE) return dictionarySearch.backspace(numOfSuggestions);
+        return dictionarySearch.search(c, numOfSuggestions);
+    }
+
+    // Nothing starts with what was typed, it is probably a typo. Fills results with
+    // words close to the prefix instead (none of them start with it, or the search
+    // would have found them). Returns true if there were any
+    private static boolean addCloseMatches(String prefix, String[] results) {
+        awaitDictionary();
+        int typos = prefix.length() > 3 ? MAX_TYPOS : 1;
+        ArrayList<String> fuzzyResults = dictionary.fuzzySearch(prefix, typos, NUM_SUGGESTIONS);
+        fuzzyResults.toArray(results);
+        return !fuzzyResults.isEmpty();
+    }
+
+    // Same predictions as getPredictions, from scratch with a cursor of its own,
+    // so the prefetch worker can run it while the typist's cursor is in use
+    public static String[] predict(String prefix) {
+        DLB.SearchCursor cursor = dictionary.newCursor();
+        ArrayList<String> resultsList = null;
+        for(int i=0; i<prefix.length(); i++) {
+            resultsList = cursor.search(prefix.charAt(i), i == prefix.length()-1 ? NUM_SUGGESTIONS : 0);
         }
+        String[] results = new String[NUM_SUGGESTIONS];
+        if(resultsList != null) resultsList.toArray(results);
+        if(results[0] == null && prefix.length() > 1) addCloseMatches(prefix, results);
         return results;
     }
 
-    public static void startAutocompleteLoop() {
-        char c = startNewWordSearch("Enter your first character: ");
-        while(c != '!') {
-            long startTime = System.nanoTime();
-            String[] results = getPredictions(c);
-            long estimatedTime = System.nanoTime() - startTime;
-            calcAverageTime(estimatedTime);
+    private static void startPrefetching() {
+        prefetcher = new SpeculativePrefetcher(dictionary, new SpeculativePrefetcher.Predictor() {
+            @Override
+            public String[] predict(String prefix) {
+                return ac_test.predict(prefix);
+            }
+        }, PREFETCH_WIDTH);
+        prefetcher.start();
+    }
+
+    // The next page of predictions for the same prefix, null if there are no more.
+    // Carries on from the last page instead of searching from the prefix again
+    public static String[] morePredictions() {
+        if(closeMatches) return null;
+        if(moreCompletions == null) {
+            if(snapshotSearch != null) {
+                awaitDictionary();
+                moreCompletions = dictionary.completions(currentWord.toString());
+            } else {
+                moreCompletions = dictionarySearch.completions();
+            }
+            // The first page is the node's ranked list, the one already shown
+            moreCompletions.nextPage(NUM_SUGGESTIONS);
+        }
+        ArrayList<String> page = moreCompletions.nextPage(NUM_SUGGESTIONS);
+        if(page.isEmpty()) return null;
+        return page.toArray(new String[NUM_SUGGESTIONS]);
+    }
 
-            printResults(results, estimatedTime);
+    public static void startAutocompleteLoop() {
+        String[] results = newWord();
+        String prompt = "Enter your first character: ";
+        long estimatedTime = 0;
+        while(true) {
+            char c;
+            if(currentWord.length() == 0) {
+                if(results[0] != null) {
+                    printPredictionList("Next word predictions:", results);
+                    System.out.print("\n");
+                }
+                c = promptUser(prompt);
+            } else {
+                printResults(results, estimatedTime);
+                c = promptUser("\nEnter next character: ");
+                while(c == SHOW_MORE) {
+                    long startTime = System.nanoTime();
+                    String[] more = morePredictions();
+                    if(more == null) {
+                        System.out.print("\nNo more predictions for \"" + currentWord + "\".\n");
+                    } else {
+                        results = more;
+                        printResults(results, System.nanoTime() - startTime);
+                    }
+                    c = promptUser("\nEnter next character: ");
+                }
+            }
+            if(c == '!') return;
 
-            c = promptUser("\nEnter next character: ");
-            c = decideAction(c, results);
+            long startTime = System.nanoTime();
+            results = typeKey(c, results, true);
+            estimatedTime = System.nanoTime() - startTime;
+            if(currentWord.length() > 0) {
+                calcAverageTime(estimatedTime);
+                searchLatency.record(estimatedTime);
+            } else {
+                prompt = c == BACKSPACE ? "Enter first character: " : "Enter first character of next word: ";
+            }
         }
     }
 
+    public static void printLatencies() {
+        System.out.println("\nLatencies:");
+        searchLatency.print(System.out);
+        nextWordLatency.print(System.out);
+        cacheLatency.print(System.out);
+        if(prefetcher != null) prefetchLatency.print(System.out);
+        dictionaryLatency.print(System.out);
+        fuzzyLatency.print(System.out);
+    }
+
     public static void sayGoodBye() {
         System.out.println("\n\nAverage Time: " + formatTime((long)averageSearchTime));
+        System.out.println("Prediction cache: " + predictionCache);
+        if(prefetcher != null) System.out.println("Prefetched: " + prefetcher);
+        System.out.println("Next words: " + nextWords);
+        printLatencies();
         System.out.println("Bye!");
     }
 
     public static void saveWordHistory() {
         try {
-            PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("user_history.txt")));
-            out.print(history.toString());
-            out.close();
+            historyJournal.close();
         } catch (IOException e) {
             System.out.println("Error in saving word history ... ");
         }
+        try {
+            nextWords.save(NGRAM_FILE);
+        } catch (IOException e) {
+            System.out.println("Error in saving next word predictions ... ");
+        }
     }
 
     public static void main(String[] args) {
-        loadUserHistory();
-        addDictionary();
+        boolean speculative = Arrays.asList(args).contains("-speculative");
+        // The snapshot is checked against the files before the history load can rewrite them
+        openSnapshot();
+        if(snapshot != null) {
+            startLoadingDictionary(speculative);
+        } else {
+            System.out.println("Loading user history and dictionary ...");
+            loadDictionary(speculative);
+        }
 
         reader = new Scanner(System.in);
 
         startAutocompleteLoop();
+        awaitDictionary();
+        if(prefetcher != null) prefetcher.close();
 
         saveWordHistory();
+        saveSnapshot();
         sayGoodBye();
 
         reader.close();
@@ -0,0 +1,133 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Calls into the autocomplete classes for the benchmarks.
+ *
+ * The project's classes live in the default package, which a named package
+ * cannot import, and JMH refuses benchmark classes in the default package.
+ * So they are reached through method handles. The handles are static final,
+ * so the JIT inlines them like direct calls and they add nothing measurable.
+ */
+final class Autocomplete {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.publicLookup();
+
+    private static final Class<?> DLB = load("DLB");
+    private static final Class<?> CURSOR = load("DLB$SearchCursor");
+    private static final Class<?> HISTORY = load("ConcurrentHistoryTrie");
+    private static final Class<?> DECAY = load("DecayedFrequency");
+
+    private static final MethodHandle NEW_DLB = constructor(DLB, int.class);
+    private static final MethodHandle DLB_ADD = method(DLB, "add", void.class, String.class, long.class);
+    private static final MethodHandle DLB_BULK_LOAD = method(DLB, "bulkLoad", boolean.class, Iterator.class);
+    private static final MethodHandle DLB_NEW_CURSOR = method(DLB, "newCursor", CURSOR);
+    private static final MethodHandle CURSOR_SEARCH = method(CURSOR, "search", ArrayList.class, char.class, int.class);
+
+    private static final MethodHandle NEW_HISTORY = constructor(HISTORY);
+    private static final MethodHandle HISTORY_GET = method(HISTORY, "get", long.class, String.class, long.class);
+    private static final MethodHandle HISTORY_RAISE = method(HISTORY, "raise", long.class, String.class, long.class);
+    private static final MethodHandle HISTORY_INCREMENT = method(HISTORY, "increment", long.class, String.class, DECAY, long.class);
+    private static final MethodHandle HISTORY_KEYS_WITH_PREFIX = method(HISTORY, "keysWithPrefix", List.class, String.class, int.class);
+
+    private static final MethodHandle NEW_DECAY = constructor(DECAY);
+    private static final MethodHandle DECAY_FROM_FREQUENCY = method(DECAY, "fromFrequency", long.class, double.class, long.class);
+
+    private Autocomplete() {
+    }
+
+    // DLB
+
+    static Object newDLB(int rankedSize) throws Throwable {
+        return (Object) NEW_DLB.invokeExact(rankedSize);
+    }
+
+    static void add(Object dlb, String word, long weight) throws Throwable {
+        DLB_ADD.invokeExact(dlb, word, weight);
+    }
+
+    static boolean bulkLoad(Object dlb, Iterator<String> words) throws Throwable {
+        return (boolean) DLB_BULK_LOAD.invokeExact(dlb, words);
+    }
+
+    static Object newCursor(Object dlb) throws Throwable {
+        return (Object) DLB_NEW_CURSOR.invokeExact(dlb);
+    }
+
+    @SuppressWarnings("unchecked")
+    static ArrayList<String> search(Object cursor, char c, int numOfSuggestions) throws Throwable {
+        return (ArrayList<String>) CURSOR_SEARCH.invokeExact(cursor, c, numOfSuggestions);
+    }
+
+    // ConcurrentHistoryTrie
+
+    static Object newHistory() throws Throwable {
+        return (Object) NEW_HISTORY.invokeExact();
+    }
+
+    static long get(Object history, String word, long defaultValue) throws Throwable {
+        return (long) HISTORY_GET.invokeExact(history, word, defaultValue);
+    }
+
+    static long raise(Object history, String word, long score) throws Throwable {
+        return (long) HISTORY_RAISE.invokeExact(history, word, score);
+    }
+
+    static long increment(Object history, String word, Object decay, long now) throws Throwable {
+        return (long) HISTORY_INCREMENT.invokeExact(history, word, decay, now);
+    }
+
+    @SuppressWarnings("unchecked")
+    static List<String> keysWithPrefix(Object history, String prefix, int k) throws Throwable {
+        return (List<String>) HISTORY_KEYS_WITH_PREFIX.invokeExact(history, prefix, k);
+    }
+
+    // DecayedFrequency
+
+    static Object newDecayedFrequency() throws Throwable {
+        return (Object) NEW_DECAY.invokeExact();
+    }
+
+    static long fromFrequency(Object decay, double frequency, long now) throws Throwable {
+        return (long) DECAY_FROM_FREQUENCY.invokeExact(decay, frequency, now);
+    }
+
+    // LOOKUPS
+
+    private static Class<?> load(String name) {
+        try {
+            return Class.forName(name);
+        } catch(ClassNotFoundException e) {
+            throw new IllegalStateException("Compile the project first, " + name + " is not on the classpath", e);
+        }
+    }
+
+    private static MethodHandle constructor(Class<?> owner, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findConstructor(owner, MethodType.methodType(void.class, parameters));
+            return handle.asType(handle.type().changeReturnType(Object.class));
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Receiver, and any project class parameter or return type, become Object so invokeExact can be typed here
+    private static MethodHandle method(Class<?> owner, String name, Class<?> returnType, Class<?>... parameters) {
+        try {
+            MethodHandle handle = LOOKUP.findVirtual(owner, name, MethodType.methodType(returnType, parameters));
+            MethodType type = handle.type().changeParameterType(0, Object.class);
+            for(int i=0; i<parameters.length; i++) {
+                if(parameters[i] == DECAY) type = type.changeParameterType(i + 1, Object.class);
+            }
+            if(returnType == CURSOR) type = type.changeReturnType(Object.class);
+            return handle.asType(type);
+        } catch(ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
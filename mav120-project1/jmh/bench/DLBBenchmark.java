@@ -0,0 +1,109 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DLB.add and DLB search cursors, over dictionary size, prefix length and
+ * ranked (cached best lists) or unranked mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DLBBenchmark {
+    private static final int NUM_SUGGESTIONS = 5;
+    private static final int SAMPLE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class SearchState {
+        @Param({"10000", "100000", "0"})   // 0 is the whole dictionary
+        public int dictionarySize;
+
+        @Param({"1", "2", "4", "8"})
+        public int prefixLength;
+
+        @Param({"0", "5"})
+        public int rankedSize;
+
+        private Object dlb;
+        private String[] prefixes;
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            List<String> words = Words.dictionary(dictionarySize);
+            dlb = Autocomplete.newDLB(rankedSize);
+            Autocomplete.bulkLoad(dlb, words.iterator());
+
+            List<String> longEnough = new ArrayList<>();
+            for(String word : words) {
+                if(word.length() >= prefixLength) longEnough.add(word.substring(0, prefixLength));
+            }
+            prefixes = Words.sample(longEnough.isEmpty() ? words : longEnough, SAMPLE);
+        }
+    }
+
+    /**
+     * Every iteration gets a freshly loaded DLB, so each add inserts a word
+     * that is not in it yet. Prefix length does not matter to add.
+     */
+    @State(Scope.Benchmark)
+    public static class AddState {
+        @Param({"10000", "100000", "0"})   // 0 is the whole dictionary
+        public int dictionarySize;
+
+        @Param({"0", "5"})
+        public int rankedSize;
+
+        private List<String> words;
+        private String[] newWords;
+        private Object dlb;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            words = Words.dictionary(dictionarySize);
+            // Words that are not in the dictionary, with a suffix no dictionary word has
+            newWords = Words.sample(words, SAMPLE);
+            for(int i=0; i<SAMPLE; i++) newWords[i] = newWords[i] + "#" + i;
+        }
+
+        @Setup(Level.Iteration)
+        public void load() throws Throwable {
+            dlb = Autocomplete.newDLB(rankedSize);
+            Autocomplete.bulkLoad(dlb, words.iterator());
+        }
+    }
+
+    /**
+     * Types a whole prefix with a fresh cursor, returns the suggestions for its last character
+     */
+    @Benchmark
+    public ArrayList<String> search(SearchState state) throws Throwable {
+        String prefix = state.prefixes[state.next++ & (SAMPLE-1)];
+        Object cursor = Autocomplete.newCursor(state.dlb);
+        ArrayList<String> suggestions = null;
+        for(int i=0; i<prefix.length(); i++) {
+            suggestions = Autocomplete.search(cursor, prefix.charAt(i), NUM_SUGGESTIONS);
+        }
+        return suggestions;
+    }
+
+    /**
+     * Adds all SAMPLE new words to the iteration's DLB. One operation is
+     * SAMPLE adds, run once per iteration, so no word is ever added twice.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 10)
+    @Measurement(iterations = 20)
+    public Object add(AddState state) throws Throwable {
+        for(String word : state.newWords) Autocomplete.add(state.dlb, word, 1);
+        return state.dlb;
+    }
+}
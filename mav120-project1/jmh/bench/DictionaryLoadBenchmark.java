@@ -0,0 +1,55 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Building the whole dictionary DLB: one add per word, the sorted bulk load,
+ * and add on shuffled input for comparison. One operation is one full load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryLoadBenchmark {
+
+    @Param({"10000", "100000", "0"})   // 0 is the whole dictionary
+    public int dictionarySize;
+
+    @Param({"0", "5"})
+    public int rankedSize;
+
+    private List<String> sorted;
+    private List<String> shuffled;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        sorted = Words.dictionary(dictionarySize);
+        shuffled = Words.shuffled(sorted);
+    }
+
+    @Benchmark
+    public Object addSorted() throws Throwable {
+        Object dlb = Autocomplete.newDLB(rankedSize);
+        for(String word : sorted) Autocomplete.add(dlb, word, 0);
+        return dlb;
+    }
+
+    @Benchmark
+    public Object addShuffled() throws Throwable {
+        Object dlb = Autocomplete.newDLB(rankedSize);
+        for(String word : shuffled) Autocomplete.add(dlb, word, 0);
+        return dlb;
+    }
+
+    @Benchmark
+    public Object bulkLoad() throws Throwable {
+        Object dlb = Autocomplete.newDLB(rankedSize);
+        Autocomplete.bulkLoad(dlb, sorted.iterator());
+        return dlb;
+    }
+}
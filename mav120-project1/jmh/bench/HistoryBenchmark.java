@@ -0,0 +1,104 @@
+package bench;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The user history, a ConcurrentHistoryTrie: get, decayed increments and the
+ * top-k keysWithPrefix, over history size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HistoryBenchmark {
+    private static final int NUM_SUGGESTIONS = 5;
+    private static final int SAMPLE = 1024;
+
+    @State(Scope.Benchmark)
+    public static class HistoryState {
+        @Param({"100", "1000", "10000"})
+        public int historySize;
+
+        private Object decay;
+        private long now;
+        private Object history;
+        private String[] keys;
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            decay = Autocomplete.newDecayedFrequency();
+            now = System.currentTimeMillis();
+            List<String> words = historyWords(historySize);
+            history = newHistory(words, decay, now);
+            keys = Words.sample(words, SAMPLE);
+        }
+    }
+
+    /**
+     * Prefix length only matters to keysWithPrefix
+     */
+    @State(Scope.Benchmark)
+    public static class PrefixState {
+        @Param({"100", "1000", "10000"})
+        public int historySize;
+
+        @Param({"1", "2", "3"})
+        public int prefixLength;
+
+        private Object history;
+        private String[] prefixes;
+        private int next = 0;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Throwable {
+            Object decay = Autocomplete.newDecayedFrequency();
+            List<String> words = historyWords(historySize);
+            history = newHistory(words, decay, System.currentTimeMillis());
+
+            String[] keys = Words.sample(words, SAMPLE);
+            prefixes = new String[SAMPLE];
+            for(int i=0; i<SAMPLE; i++) {
+                prefixes[i] = keys[i].substring(0, Math.min(prefixLength, keys[i].length()));
+            }
+        }
+    }
+
+    private static List<String> historyWords(int historySize) throws Throwable {
+        List<String> all = Words.shuffled(Words.dictionary(0));
+        return all.subList(0, Math.min(historySize, all.size()));
+    }
+
+    // Each word used 1 to 50 times, as if all just now
+    private static Object newHistory(List<String> words, Object decay, long now) throws Throwable {
+        Random random = new Random(Words.SEED);
+        Object history = Autocomplete.newHistory();
+        for(String word : words) {
+            Autocomplete.raise(history, word, Autocomplete.fromFrequency(decay, 1 + random.nextInt(50), now));
+        }
+        return history;
+    }
+
+    @Benchmark
+    public long get(HistoryState state) throws Throwable {
+        return Autocomplete.get(state.history, state.keys[state.next++ & (SAMPLE-1)], Long.MIN_VALUE);
+    }
+
+    /**
+     * What ac_test.addWordToHistory does to the history: one more decayed use
+     */
+    @Benchmark
+    public long increment(HistoryState state) throws Throwable {
+        return Autocomplete.increment(state.history, state.keys[state.next++ & (SAMPLE-1)], state.decay, state.now);
+    }
+
+    @Benchmark
+    public List<String> keysWithPrefix(PrefixState state) throws Throwable {
+        return Autocomplete.keysWithPrefix(state.history, state.prefixes[state.next++ & (SAMPLE-1)], NUM_SUGGESTIONS);
+    }
+}
@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Word lists for the benchmarks.
+ *
+ * Uses dictionary.txt (or the file in -Ddictionary=...) when it exists, so the
+ * numbers match the real dictionary, and otherwise generates random words
+ * with a fixed seed so the benchmarks still run anywhere.
+ */
+final class Words {
+    static final long SEED = 1501;
+
+    private Words() {
+    }
+
+    /**
+     * size words from the dictionary in sorted order, spread evenly over it.
+     * size 0 means all of them.
+     */
+    static List<String> dictionary(int size) throws IOException {
+        Path file = Paths.get(System.getProperty("dictionary", "dictionary.txt"));
+        List<String> all;
+        if(Files.exists(file)) {
+            all = new ArrayList<>(new TreeSet<>(Files.readAllLines(file)));
+        } else {
+            all = generate(size == 0 ? 100000 : size);
+        }
+        if(size == 0 || size >= all.size()) return all;
+
+        List<String> words = new ArrayList<>(size);
+        double step = (double) all.size() / size;
+        for(int i=0; i<size; i++) words.add(all.get((int) (i * step)));
+        return words;
+    }
+
+    /**
+     * count random words, sorted
+     */
+    static List<String> generate(int count) {
+        Random random = new Random(SEED);
+        TreeSet<String> words = new TreeSet<>();
+        while(words.size() < count) {
+            int length = 1 + random.nextInt(10);
+            StringBuilder word = new StringBuilder(length);
+            for(int i=0; i<length; i++) word.append((char) ('a' + random.nextInt(26)));
+            words.add(word.toString());
+        }
+        return new ArrayList<>(words);
+    }
+
+    /**
+     * count words picked at random from words, for lookups
+     */
+    static String[] sample(List<String> words, int count) {
+        Random random = new Random(SEED);
+        String[] sample = new String[count];
+        for(int i=0; i<count; i++) sample[i] = words.get(random.nextInt(words.size()));
+        return sample;
+    }
+
+    static List<String> shuffled(List<String> words) {
+        List<String> copy = new ArrayList<>(words);
+        Collections.shuffle(copy, new Random(SEED));
+        return copy;
+    }
+}